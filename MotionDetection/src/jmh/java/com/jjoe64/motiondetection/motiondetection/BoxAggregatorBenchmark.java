@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Scaling of the box aggregation over stripes on the shared worker pool.
+ * One stripe is the serial pass, anything above that splits the frame
+ * whatever its size, so the curve shows both the speed up and the hand off
+ * overhead on small frames.
+ */
+@State(Scope.Thread)
+public class BoxAggregatorBenchmark {
+
+    @Param({Frames.VGA, Frames.HD, Frames.FULL_HD})
+    public String resolution;
+
+    @Param({"1", "2", "4", "8"})
+    public int stripes;
+
+    private byte[] frame;
+    private BoxAggregator aggregator;
+    private int[] means;
+
+    @Setup
+    public void setUp() {
+        int width = Frames.width(resolution);
+        int height = Frames.height(resolution);
+        BoxGrid grid = new BoxGrid(width, height, 10, 10);
+        frame = Frames.nv21(width, height, 1, true);
+        means = new int[grid.getBoxCount()];
+        aggregator = new BoxAggregator(grid);
+        if (stripes > 1 && MotionWorkers.get() != null) {
+            aggregator.setParallel(MotionWorkers.get(), stripes, 0);
+        }
+    }
+
+    @Benchmark
+    public long aggregate() {
+        return aggregator.aggregate(frame, 0, means);
+    }
+}
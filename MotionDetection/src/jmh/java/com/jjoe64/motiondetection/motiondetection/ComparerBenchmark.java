@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * State construction and a single comparison of two frames, walking every
+ * pixel with {@link Comparer}, against the summed-area table path of
+ * {@link AggregateLumaMotionDetection} fed the same two frames in turn, over
+ * a range of grid sizes.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class ComparerBenchmark {
+
+    @Param({Frames.QVGA, Frames.VGA, Frames.HD, Frames.FULL_HD})
+    public String resolution;
+
+    @Param({"5", "10", "20", "40"})
+    public int boxes;
+
+    private int width;
+    private int height;
+    private int[] first;
+    private State previous;
+    private State current;
+    private int[][] planes;
+    private int next;
+    private AggregateLumaMotionDetection integral;
+
+    @Setup
+    public void setUp() {
+        width = Frames.width(resolution);
+        height = Frames.height(resolution);
+        first = ImageProcessing.decodeYUV420SPtoLuma(Frames.nv21(width, height, 1, false), width, height);
+        int[] second = ImageProcessing.decodeYUV420SPtoLuma(Frames.nv21(width, height, 2, true), width, height);
+        previous = new State(first, width, height);
+        current = new State(second, width, height);
+        planes = new int[][] {first, second};
+
+        integral = new AggregateLumaMotionDetection();
+        integral.setComparerMode(AggregateLumaMotionDetection.COMPARER_INTEGRAL);
+        integral.setBoxes(boxes, boxes);
+        // size the tables and keep box means of a previous frame
+        integral.detect(planes[0], width, height);
+        next = 1;
+    }
+
+    @Benchmark
+    public State state() {
+        return new State(first, width, height);
+    }
+
+    @Benchmark
+    public boolean comparer() {
+        return new Comparer(current, previous, boxes, boxes, 20, 2).isDifferent();
+    }
+
+    /** Summed-area table and box means of a frame, compared with the last one. */
+    @Benchmark
+    public boolean integral() {
+        int[] plane = planes[next];
+        next ^= 1;
+        return integral.detect(plane, width, height);
+    }
+}
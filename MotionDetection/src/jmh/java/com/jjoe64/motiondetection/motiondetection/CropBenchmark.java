@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of handing a detector a cropped and shrunk frame against the size of
+ * the crop. The barcode and face detectors only run on a device, so a
+ * binarization like the one a QR reader starts with, a threshold against the
+ * mean of each 8x8 block, stands in for the decode; on a device the detector
+ * stages of /api/metrics time the real thing.
+ */
+@State(Scope.Thread)
+public class CropBenchmark {
+
+    private static final int BLOCK = 8;
+
+    @Param({Frames.VGA, Frames.HD})
+    public String resolution;
+
+    /** Part of the frame width and height kept around the centre. */
+    @Param({"1.0", "0.75", "0.5", "0.25"})
+    public float crop;
+
+    @Param({"1", "2", "4"})
+    public int scale;
+
+    private int width;
+    private int height;
+    private byte[] frame;
+    private byte[] bits;
+    private FrameCrop frameCrop;
+
+    @Setup
+    public void setUp() {
+        width = Frames.width(resolution);
+        height = Frames.height(resolution);
+        frame = Frames.nv21(width, height, 1, true);
+        frameCrop = FrameCrop.center(crop, scale);
+        frameCrop.apply(frame, 0, width, height);
+        bits = new byte[width * height];
+    }
+
+    /** Cropping and shrinking alone. */
+    @Benchmark
+    public byte[] crop() {
+        return frameCrop.apply(frame, 0, width, height);
+    }
+
+    /** The stand-in decode on the whole frame, what every crop is held against. */
+    @Benchmark
+    public int fullFrame() {
+        return binarize(frame, width, height);
+    }
+
+    /** Cropping and shrinking, then the stand-in decode on the result. */
+    @Benchmark
+    public int cropped() {
+        byte[] luma = frameCrop.apply(frame, 0, width, height);
+        return binarize(luma, frameCrop.getWidth(), frameCrop.getHeight());
+    }
+
+    private int binarize(byte[] luma, int w, int h) {
+        int black = 0;
+        for (int by = 0; by + BLOCK <= h; by += BLOCK) {
+            for (int bx = 0; bx + BLOCK <= w; bx += BLOCK) {
+                int sum = 0;
+                for (int y = by; y < by + BLOCK; y++) {
+                    for (int x = bx, i = y * w + bx; x < bx + BLOCK; x++, i++) {
+                        sum += luma[i] & 0xff;
+                    }
+                }
+                final int threshold = sum / (BLOCK * BLOCK);
+                for (int y = by; y < by + BLOCK; y++) {
+                    for (int x = bx, i = y * w + bx; x < bx + BLOCK; x++, i++) {
+                        final int bit = (luma[i] & 0xff) < threshold ? 1 : 0;
+                        bits[i] = (byte) bit;
+                        black += bit;
+                    }
+                }
+            }
+        }
+        return black;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * End to end cost of feeding one frame to a detector. Two frames alternate,
+ * one with a bright square and one without, so the frame difference engines
+ * see motion on every call and run the full comparison.
+ */
+@State(Scope.Thread)
+public class DetectionBenchmark {
+
+    @Param({Frames.QVGA, Frames.VGA, Frames.HD, Frames.FULL_HD})
+    public String resolution;
+
+    @Param({"1", "4"})
+    public int decimation;
+
+    private int width;
+    private int height;
+    private byte[][] frames;
+    private int[][] planes;
+    private int next;
+
+    private AggregateLumaMotionDetection aggregate;
+    private AggregateLumaMotionDetection integral;
+    private AggregateLumaMotionDetection yuv;
+    private BackgroundMotionDetection background;
+
+    @Setup
+    public void setUp() {
+        width = Frames.width(resolution);
+        height = Frames.height(resolution);
+        frames = new byte[][] {
+                Frames.nv21(width, height, 1, false),
+                Frames.nv21(width, height, 2, true)
+        };
+        planes = new int[][] {
+                ImageProcessing.decodeYUV420SPtoLuma(frames[0], width, height),
+                ImageProcessing.decodeYUV420SPtoLuma(frames[1], width, height)
+        };
+
+        aggregate = new AggregateLumaMotionDetection();
+        integral = new AggregateLumaMotionDetection();
+        integral.setComparerMode(AggregateLumaMotionDetection.COMPARER_INTEGRAL);
+        yuv = new AggregateLumaMotionDetection();
+        yuv.setDecimation(decimation);
+        background = new BackgroundMotionDetection();
+        background.setDecimation(decimation);
+    }
+
+    private int flip() {
+        next ^= 1;
+        return next;
+    }
+
+    /** Decode to luma and compare with {@link Comparer}, as the app used to. */
+    @Benchmark
+    public boolean aggregateLuma() {
+        int i = flip();
+        return aggregate.detect(ImageProcessing.decodeYUV420SPtoLuma(frames[i], width, height), width, height);
+    }
+
+    @Benchmark
+    public boolean integralLuma() {
+        return integral.detect(planes[flip()], width, height);
+    }
+
+    /** Box means straight from the Y plane, the path the app runs. */
+    @Benchmark
+    public boolean aggregateYuv() {
+        return yuv.detect(frames[flip()], width, height);
+    }
+
+    @Benchmark
+    public boolean backgroundYuv() {
+        return background.detect(frames[flip()], width, height);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Cost of turning a stream frame into a JPEG. The bitmap path stands in on
+ * the JVM for the old MJPEG path, NV21 to RGB to an image that is then
+ * compressed, while the direct path encodes the rotated NV21 frame as it is.
+ */
+@State(Scope.Thread)
+public class EncoderBenchmark {
+
+    private static final int QUALITY = 80;
+
+    @Param({Frames.QVGA, Frames.VGA, Frames.HD, Frames.FULL_HD})
+    public String resolution;
+
+    private int width;
+    private int height;
+    private byte[] frame;
+    private int[] rgb;
+    private BufferedImage image;
+    private ImageWriter writer;
+    private ImageWriteParam param;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final YuvConverter converter = new YuvConverter();
+    private final YuvRotator rotator = new YuvRotator();
+    private final JpegEncoder encoder = new JpegEncoder();
+
+    @Setup
+    public void setUp() {
+        width = Frames.width(resolution);
+        height = Frames.height(resolution);
+        frame = Frames.nv21(width, height, 1, false);
+        rgb = new int[width * height];
+        image = new BufferedImage(height, width, BufferedImage.TYPE_INT_RGB);
+        writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(QUALITY / 100f);
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.dispose();
+    }
+
+    /** Rotate, convert to RGB, copy into an image and compress that. */
+    @Benchmark
+    public int bitmapPath() throws IOException {
+        byte[] rotated = rotator.rotate(frame, width, height, 90, false);
+        int w = rotator.getWidth();
+        int h = rotator.getHeight();
+        converter.convert(rotated, w, h, rgb);
+        image.setRGB(0, 0, w, h, rgb, 0, w);
+
+        out.reset();
+        ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+        writer.setOutput(stream);
+        writer.write(null, new IIOImage(image, null, null), param);
+        stream.close();
+        return out.size();
+    }
+
+    /** Rotate and encode the NV21 frame directly. */
+    @Benchmark
+    public int directPath() throws IOException {
+        byte[] rotated = rotator.rotate(frame, width, height, 90, false);
+        out.reset();
+        encoder.encode(rotated, rotator.getWidth(), rotator.getHeight(), QUALITY, out);
+        return out.size();
+    }
+
+    /** Encoding alone, without the rotation. */
+    @Benchmark
+    public int encode() throws IOException {
+        out.reset();
+        encoder.encode(frame, width, height, QUALITY, out);
+        return out.size();
+    }
+}
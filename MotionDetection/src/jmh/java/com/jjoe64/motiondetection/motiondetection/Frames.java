@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.Random;
+
+/**
+ * Synthetic NV21 frames for the benchmarks: a lit gradient with sensor noise
+ * and a grey chroma plane, optionally with a bright square standing in for
+ * something moving through the scene. Frames are seeded, so every run and
+ * every fork sees the same bytes.
+ */
+final class Frames {
+
+    /** Resolutions every per-frame benchmark runs at. */
+    static final String QVGA = "320x240";
+    static final String VGA = "640x480";
+    static final String HD = "1280x720";
+    static final String FULL_HD = "1920x1080";
+
+    private Frames() {
+    }
+
+    static int width(String resolution) {
+        return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+    }
+
+    static int height(String resolution) {
+        return Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+    }
+
+    /**
+     * @param width
+     *            Width of the frame, even.
+     * @param height
+     *            Height of the frame, even.
+     * @param seed
+     *            Seed of the noise.
+     * @param moving
+     *            Paint a bright square over a quarter of the frame.
+     * @return byte array of width * height * 3 / 2 NV21 bytes.
+     */
+    static byte[] nv21(int width, int height, long seed, boolean moving) {
+        final Random random = new Random(seed);
+        final int frameSize = width * height;
+        final byte[] frame = new byte[frameSize + frameSize / 2];
+
+        for (int y = 0, i = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, i++) {
+                int luma = 40 + (x * 120) / width + (y * 60) / height + random.nextInt(9) - 4;
+                frame[i] = (byte) luma;
+            }
+        }
+        if (moving) {
+            for (int y = height / 4; y < height / 2; y++) {
+                for (int x = width / 4; x < width / 2; x++) {
+                    frame[y * width + x] = (byte) (200 + random.nextInt(9) - 4);
+                }
+            }
+        }
+        for (int i = frameSize; i < frame.length; i += 2) {
+            frame[i] = (byte) (128 + random.nextInt(5) - 2);
+            frame[i + 1] = (byte) (128 + random.nextInt(5) - 2);
+        }
+        return frame;
+    }
+}
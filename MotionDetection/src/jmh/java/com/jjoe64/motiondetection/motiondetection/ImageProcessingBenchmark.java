@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of widening a camera frame into the int planes the motion code works
+ * on.
+ */
+@State(Scope.Thread)
+public class ImageProcessingBenchmark {
+
+    @Param({Frames.QVGA, Frames.VGA, Frames.HD, Frames.FULL_HD})
+    public String resolution;
+
+    private int width;
+    private int height;
+    private byte[] frame;
+    private int[] luma;
+    private int[] rgb;
+    private final YuvConverter converter = new YuvConverter();
+    private final MotionRenderer renderer = new MotionRenderer();
+    private final YuvRotator rotator = new YuvRotator();
+
+    @Setup
+    public void setUp() {
+        width = Frames.width(resolution);
+        height = Frames.height(resolution);
+        frame = Frames.nv21(width, height, 1, false);
+        luma = new int[width * height];
+        rgb = new int[width * height];
+    }
+
+    /** A fresh plane per frame, as the int[] detection path used to do. */
+    @Benchmark
+    public int[] decodeLuma() {
+        return ImageProcessing.decodeYUV420SPtoLuma(frame, width, height);
+    }
+
+    @Benchmark
+    public int[] decodeLumaReused() {
+        return ImageProcessing.decodeYUV420SPtoLuma(frame, width, height, luma);
+    }
+
+    @Benchmark
+    public int[] decodeRGB() {
+        return ImageProcessing.decodeYUV420SPtoRGB(frame, width, height);
+    }
+
+    /** Table driven conversion into a reused array. */
+    @Benchmark
+    public int[] convertRGB() {
+        return converter.convert(frame, width, height, rgb);
+    }
+
+    /** Quarter turn of the NV21 frame, as the MJPEG stream does before encoding. */
+    @Benchmark
+    public byte[] rotate90() {
+        return rotator.rotate(frame, width, height, 90, false);
+    }
+
+    /** Debug overlay pixels, before the single setPixels. */
+    @Benchmark
+    public int[] renderLuma() {
+        return renderer.renderLuma(frame, width, height);
+    }
+}
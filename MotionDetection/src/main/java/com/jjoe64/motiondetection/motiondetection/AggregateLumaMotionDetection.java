@@ -0,0 +1,499 @@
+
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+//import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Motion detection by comparing aggregate luma values of boxes between
+ * frames. All state lives in the instance, so separate instances share
+ * nothing and can run in parallel. An instance itself is not thread-safe
+ * and must be confined to the thread that feeds it frames.
+ */
+public class AggregateLumaMotionDetection implements IMotionDetection, IYuvMotionDetection {
+
+    /** Walk every pixel of every box with {@link Comparer}. */
+    public static final int COMPARER_AGGREGATE = 0;
+    /** Read box means from a reused summed-area table of each frame. */
+    public static final int COMPARER_INTEGRAL = 1;
+
+    // private static final String TAG = "AggregateLumaMotionDetection";
+
+    // Specific settings
+    private int mLeniency = 20; // Difference of aggregate map of
+    // luma values
+    private static final int mDebugMode = 2; // State based debug
+    private int mXBoxes = 10; // State based debug
+    private int mYBoxes = 10; // State based debug
+    private int mComparerMode = COMPARER_AGGREGATE;
+    private int mMinLuma = 0;
+    private int mDecimation = 1;
+    private boolean mCompensateLighting = false;
+    private MotionZones mZones = null;
+    private boolean mParallel = false;
+    private int mParallelThreshold = MotionWorkers.DEFAULT_THRESHOLD;
+
+    private int[] mPrevious = null;
+    private int mPreviousWidth;
+    private int mPreviousHeight;
+    private State mPreviousState = null;
+
+    // Double buffered box means for COMPARER_INTEGRAL and the YUV path,
+    // swapped after every frame instead of being cloned. The last frame of
+    // COMPARER_INTEGRAL is only kept in its summed-area table, and rebuilt
+    // from it when asked for.
+    private IntegralImage mIntegral = null;
+    private boolean mPreviousInIntegral = false;
+    private BoxGrid mGrid = null;
+    private BoxAggregator mAggregator = null;
+    private int[] mBoxMeans = null;
+    private int[] mPreviousBoxMeans = null;
+    private int[] mVariance = null;
+    private int[] mBoxZones = null;
+    private OutsideZoneSampler mOutside = null;
+    private int mMotionZones = 0;
+    private long mWatchedArea = 0;
+    private final MotionRegion mRegion = new MotionRegion();
+    private boolean mHasPreviousBoxMeans = false;
+    private final LightingCompensation mLighting = new LightingCompensation();
+    private boolean mLightingChange = false;
+    private boolean mTooDark = false;
+    private long mLumaSum = 0;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getPrevious() {
+        if (mPreviousInIntegral) return mIntegral.restore(new int[mPreviousWidth * mPreviousHeight]);
+        return ((mPrevious != null) ? mPrevious.clone() : null);
+    }
+
+    protected boolean isDifferent(int[] first, int width, int height) {
+        if (first == null) throw new NullPointerException();
+
+        mLightingChange = false;
+        if (mPrevious == null) return false;
+        if (first.length != mPrevious.length) return true;
+        if (mPreviousWidth != width || mPreviousHeight != height) return true;
+
+        if (mPreviousState == null) {
+            mPreviousState = new State(mPrevious, mPreviousWidth, mPreviousHeight);
+            return false;
+        }
+
+        State state = new State(first, width, height);
+        int offset = mCompensateLighting ? state.getAverage() - mPreviousState.getAverage() : 0;
+        Comparer comparer = new Comparer(state, mPreviousState, mXBoxes, mYBoxes, mLeniency, mDebugMode, offset);
+
+        boolean different = comparer.isDifferent();
+        mLightingChange = !different && Math.abs(offset) > mLeniency;
+        // String output = "isDifferent="+different;
+
+        mPreviousState = state;
+
+        return different;
+    }
+
+    /**
+     * Detect motion using aggregate luma values. {@inheritDoc}
+     */
+    @Override
+    public boolean detect(int[] luma, int width, int height) {
+        if (luma == null) throw new NullPointerException();
+
+        if (mComparerMode == COMPARER_INTEGRAL) return detectBoxMeans(luma, width, height);
+        if (mPreviousInIntegral) {
+            // the comparer changed, carry on from the last frame compared
+            mPrevious = mIntegral.restore(new int[mPreviousWidth * mPreviousHeight]);
+            mPreviousInIntegral = false;
+        }
+
+        //int[] original = luma.clone();
+
+        // Create the "mPrevious" picture, the one that will be used to check
+        // the next frame against.
+        if (mPrevious == null) {
+            mPrevious = new int[luma.length];
+            System.arraycopy(luma, 0, mPrevious, 0, luma.length);
+
+            //mPrevious = original;
+            mPreviousWidth = width;
+            mPreviousHeight = height;
+            // Log.i(TAG, "Creating background image");
+        }
+
+        // long bDetection = System.currentTimeMillis();
+        boolean motionDetected = isDifferent(luma, width, height);
+        // long aDetection = System.currentTimeMillis();
+        // Log.d(TAG, "Detection "+(aDetection-bDetection));
+
+        // Replace the current image with the previous.
+        //mPrevious = original;
+        System.arraycopy(luma, 0, mPrevious, 0, luma.length);
+        mPreviousWidth = width;
+        mPreviousHeight = height;
+
+        return motionDetected;
+    }
+
+    /**
+     * Detect motion from the Y plane in one fused pass: box means, the frame
+     * luma sum and the too dark check, with no int[] plane in between. Frames
+     * below the minimum luma are not compared and do not replace the previous
+     * frame. {@inheritDoc}
+     */
+    @Override
+    public boolean detect(byte[] yuv420sp, int width, int height) {
+        if (yuv420sp == null) throw new NullPointerException();
+
+        boolean resized = prepareGrid(width, height);
+        long lumaSum = mAggregator.aggregate(yuv420sp, 0, mBoxMeans);
+        if (mCompensateLighting && mOutside != null) mOutside.fill(yuv420sp, 0, mBoxMeans);
+        return compareFrame(lumaSum, resized);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean detect(ByteBuffer yuv420sp, int width, int height) {
+        if (yuv420sp == null) throw new NullPointerException();
+
+        boolean resized = prepareGrid(width, height);
+        long lumaSum = mAggregator.aggregate(yuv420sp, mBoxMeans);
+        if (mCompensateLighting && mOutside != null) mOutside.fill(yuv420sp, mBoxMeans);
+        return compareFrame(lumaSum, resized);
+    }
+
+    private boolean compareFrame(long lumaSum, boolean resized) {
+        mLumaSum = lumaSum;
+        mTooDark = lumaSum < mMinLuma;
+        if (mTooDark) {
+            mLightingChange = false;
+            mMotionZones = 0;
+            mRegion.reset();
+            Arrays.fill(mVariance, 0);
+            return false;
+        }
+        return compareBoxMeans() || resized;
+    }
+
+    /**
+     * Allocation free detection for {@link #COMPARER_INTEGRAL}. The frame is
+     * reduced to box means through a reused summed-area table and compared
+     * with the box means of the previous frame, which are then swapped with
+     * the current ones, so once a frame of a given size has been seen nothing
+     * further is allocated. The frame itself is not copied, the table holds
+     * it for {@link #getPrevious()}.
+     */
+    private boolean detectBoxMeans(int[] luma, int width, int height) {
+        boolean resized = prepareGrid(width, height);
+        if (mIntegral == null || mIntegral.getWidth() != width || mIntegral.getHeight() != height) {
+            mIntegral = new IntegralImage(width, height);
+        }
+
+        mIntegral.update(luma, width, height);
+        // the lighting estimate needs every box, the table has them all anyway
+        mGrid.means(mIntegral, mBoxMeans, mCompensateLighting ? null : mBoxZones);
+        mPreviousInIntegral = true;
+        mPreviousWidth = width;
+        mPreviousHeight = height;
+
+        return compareBoxMeans() || resized;
+    }
+
+    /**
+     * Compare the box means of the current frame with the previous ones, then
+     * swap them so the current frame becomes the previous one. With lighting
+     * compensation the median change over all boxes is taken out first, and
+     * a frame where only that shared change passes the leniency counts as a
+     * lighting change rather than motion. With zones set only boxes inside a
+     * zone are compared, and each differing box flags its zones, but the
+     * lighting change is still taken over every box of the frame. The region
+     * of the differing boxes is gathered in the same pass.
+     *
+     * @return True if any box differs by more than the leniency.
+     */
+    private boolean compareBoxMeans() {
+        boolean different = false;
+        int zones = 0;
+        mLightingChange = false;
+        mRegion.reset();
+        if (mHasPreviousBoxMeans) {
+            final int count = mGrid.getBoxCount();
+            int offset = mCompensateLighting ? mLighting.offset(mBoxMeans, mPreviousBoxMeans, count) : 0;
+            for (int i = 0; i < count; i++) {
+                if (mBoxZones != null && mBoxZones[i] == 0) {
+                    mVariance[i] = 0;
+                    continue;
+                }
+                int diff = Math.abs(mBoxMeans[i] - mPreviousBoxMeans[i] - offset);
+                mVariance[i] = diff;
+                // the difference in a certain region has passed the threshold
+                // value
+                if (diff > mLeniency) {
+                    different = true;
+                    if (mBoxZones != null) zones |= mBoxZones[i];
+                    mRegion.add(mGrid, i, diff);
+                }
+            }
+            mRegion.finish(mWatchedArea);
+            mLightingChange = !different && Math.abs(offset) > mLeniency;
+        }
+
+        int[] means = mPreviousBoxMeans;
+        mPreviousBoxMeans = mBoxMeans;
+        mBoxMeans = means;
+        mHasPreviousBoxMeans = true;
+        mMotionZones = zones;
+
+        return different;
+    }
+
+    /**
+     * Make sure the grid and box mean buffers fit a frame of the given size,
+     * allocating them only when the size or the grid changes.
+     *
+     * @return True if box means of a differently sized frame were dropped.
+     */
+    private boolean prepareGrid(int width, int height) {
+        if (mGrid != null && mGrid.matches(width, height, mXBoxes, mYBoxes)
+                && mAggregator.getStep() == mDecimation) {
+            return false;
+        }
+
+        boolean resized = mHasPreviousBoxMeans;
+        mGrid = new BoxGrid(width, height, mXBoxes, mYBoxes);
+        mAggregator = new BoxAggregator(mGrid, mDecimation);
+        final int count = mGrid.getBoxCount();
+        mBoxMeans = new int[count];
+        mPreviousBoxMeans = new int[count];
+        mVariance = new int[count];
+        mHasPreviousBoxMeans = false;
+        applyZones();
+        applyParallel();
+        return resized;
+    }
+
+    /**
+     * Lay the zones over the current grid and mask the aggregator with them.
+     */
+    private void applyZones() {
+        if (mGrid == null) return;
+        if (mZones == null) {
+            mBoxZones = null;
+            mOutside = null;
+        } else {
+            if (mBoxZones == null || mBoxZones.length != mGrid.getBoxCount()) mBoxZones = new int[mGrid.getBoxCount()];
+            mZones.masks(mGrid, mBoxZones);
+            mOutside = new OutsideZoneSampler(mGrid, mDecimation, mBoxZones);
+        }
+        mAggregator.setMask(mBoxZones);
+        mWatchedArea = mGrid.area(mBoxZones);
+    }
+
+    private void applyParallel() {
+        if (mAggregator == null) return;
+        if (mParallel) {
+            mAggregator.setParallel(MotionWorkers.get(), MotionWorkers.getStripes(), mParallelThreshold);
+        } else {
+            mAggregator.setParallel(null, 1, 0);
+        }
+    }
+
+    public void setLeniency(int l) {
+        mLeniency = l;
+    }
+
+    /**
+     * Set the luma sum below which a YUV frame is too dark to compare.
+     *
+     * @param minLuma
+     *            Minimum sum of the luma of every pixel.
+     */
+    public void setMinLuma(int minLuma) {
+        mMinLuma = minLuma;
+    }
+
+    /**
+     * Read only every step-th pixel of every step-th row on the YUV path.
+     * A step of 4 turns a 640x480 frame into 160x120 samples and a step of 8
+     * into 80x60, while box means stay on the same grid.
+     *
+     * @param step
+     *            Decimation step, 1 to read every pixel.
+     */
+    public void setDecimation(int step) {
+        if (step <= 0) throw new IllegalArgumentException();
+        mDecimation = step;
+    }
+
+    /**
+     * Take the change in lighting across the whole frame out of every box
+     * before comparing. The integral and YUV paths use the median change of
+     * the box means, {@link #COMPARER_AGGREGATE} the change in the frame
+     * average.
+     *
+     * @param compensate
+     *            True to ignore lighting changes.
+     */
+    public void setLightingCompensation(boolean compensate) {
+        mCompensateLighting = compensate;
+    }
+
+    /**
+     * Only look for motion inside the given zones. Boxes outside every zone
+     * are not read on the YUV path, other than a coarse pass for the
+     * lighting estimate when lighting compensation is on. Zones apply to the
+     * integral and YUV paths, {@link #COMPARER_AGGREGATE} still compares the
+     * whole frame.
+     *
+     * @param zones
+     *            Zones laid out on the same box counts as this detector, or
+     *            NULL to look at the whole frame.
+     */
+    public void setZones(MotionZones zones) {
+        if (zones != null && (zones.getXBoxes() != mXBoxes || zones.getYBoxes() != mYBoxes)) {
+            throw new IllegalArgumentException("Zones do not match the grid");
+        }
+        mZones = zones;
+        mMotionZones = 0;
+        applyZones();
+    }
+
+    /**
+     * Aggregate large frames in stripes on the shared {@link MotionWorkers}
+     * pool. Results are the same as on a single thread.
+     *
+     * @param parallel
+     *            True to split frames above the threshold.
+     */
+    public void setParallel(boolean parallel) {
+        mParallel = parallel;
+        applyParallel();
+    }
+
+    /**
+     * Set the number of sampled pixels from which a frame is split into
+     * stripes. Below it handing work to other threads costs more than it
+     * saves.
+     *
+     * @param minSamples
+     *            Sampled pixels per frame, {@link MotionWorkers#DEFAULT_THRESHOLD}
+     *            by default.
+     */
+    public void setParallelThreshold(int minSamples) {
+        mParallelThreshold = minSamples;
+        applyParallel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMotionZones() {
+        return mMotionZones;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MotionRegion getMotionRegion() {
+        return mRegion;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLightingChange() {
+        return mLightingChange;
+    }
+
+    /**
+     * {@inheritDoc} Only the box mean paths keep the differences, with
+     * {@link #COMPARER_AGGREGATE} on luma planes use
+     * {@link Comparer#paintDifferences(int[])}.
+     */
+    @Override
+    public void paintDifferences(int[] data) {
+        if (data == null) throw new NullPointerException();
+        if (mGrid == null || mVariance == null) return;
+
+        for (int i = 0; i < mVariance.length; i++) {
+            if (mVariance[i] > mLeniency) mGrid.paintOutline(data, i, ImageProcessing.RED);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTooDark() {
+        return mTooDark;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLumaSum() {
+        return mLumaSum;
+    }
+
+    /**
+     * Select the comparer used on each frame.
+     *
+     * @param mode
+     *            {@link #COMPARER_AGGREGATE} or {@link #COMPARER_INTEGRAL}.
+     */
+    public void setComparerMode(int mode) {
+        mComparerMode = mode;
+    }
+
+    /**
+     * Set the size of the comparison grid. Finer grids are only practical
+     * with {@link #COMPARER_INTEGRAL}.
+     *
+     * @param xBoxes
+     *            Number of boxes across the image.
+     * @param yBoxes
+     *            Number of boxes down the image.
+     */
+    public void setBoxes(int xBoxes, int yBoxes) {
+        if (xBoxes <= 0 || yBoxes <= 0) throw new IllegalArgumentException();
+        mXBoxes = xBoxes;
+        mYBoxes = yBoxes;
+        setZones(null);
+    }
+
+    public void clear(){
+        mPrevious = null;
+        mPreviousInIntegral = false;
+        mPreviousState = null;
+        mHasPreviousBoxMeans = false;
+        mLightingChange = false;
+        mMotionZones = 0;
+        mRegion.reset();
+    }
+}
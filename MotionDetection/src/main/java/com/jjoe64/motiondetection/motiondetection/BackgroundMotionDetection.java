@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Motion detection against a learned background rather than the previous
+ * frame. Every box keeps an exponential moving average of its mean luma and
+ * of how far the mean usually strays from it. A box is foreground when it
+ * strays further than its own noise allows, so flickering boxes need a larger
+ * change than quiet ones and slow movement still builds up against the
+ * background instead of hiding in small frame to frame steps.
+ *
+ * All arithmetic is integer, with background and noise kept in 8 bit fixed
+ * point. Foreground boxes are blended into the background at a much lower
+ * rate, so something that stops in view becomes background after a while.
+ *
+ * Like {@link AggregateLumaMotionDetection} an instance owns all of its state
+ * and must be confined to the thread that feeds it frames.
+ */
+public class BackgroundMotionDetection implements IMotionDetection, IYuvMotionDetection {
+
+    private static final int FIXED_SHIFT = 8;
+    // Extra shift applied to the learning rate of foreground boxes
+    private static final int FOREGROUND_SHIFT = 3;
+
+    // Specific settings
+    private int mLeniency = 20; // Smallest difference from the background
+    // that counts as motion, in luma values
+    private int mXBoxes = 10;
+    private int mYBoxes = 10;
+    private int mMinLuma = 0;
+    private int mDecimation = 1;
+    private int mLearningShift = 5; // Background learns 1/32 of each frame
+    private int mNoiseFactor = 4; // Threshold in mean deviations
+    private boolean mCompensateLighting = false;
+    private MotionZones mZones = null;
+    private boolean mParallel = false;
+    private int mParallelThreshold = MotionWorkers.DEFAULT_THRESHOLD;
+
+    private BoxGrid mGrid = null;
+    private BoxAggregator mAggregator = null;
+    // Also holds the last luma plane, rebuilt from it by getPrevious()
+    private IntegralImage mIntegral = null;
+    private boolean mHasPrevious = false;
+    private int[] mBoxMeans = null;
+    private int[] mSamples = null;
+    private int[] mBackground = null;
+    private int[] mNoise = null;
+    private boolean[] mForeground = null;
+    private int[] mBoxZones = null;
+    private OutsideZoneSampler mOutside = null;
+    private int mMotionZones = 0;
+    private long mWatchedArea = 0;
+    private final MotionRegion mRegion = new MotionRegion();
+    private boolean mSeeded = false;
+    private int mForegroundBoxes = 0;
+    private final LightingCompensation mLighting = new LightingCompensation();
+    private boolean mLightingChange = false;
+    private boolean mTooDark = false;
+    private long mLumaSum = 0;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] getPrevious() {
+        if (!mHasPrevious) return null;
+        return mIntegral.restore(new int[mIntegral.getWidth() * mIntegral.getHeight()]);
+    }
+
+    /**
+     * Detect motion against the background model. {@inheritDoc}
+     */
+    @Override
+    public boolean detect(int[] luma, int width, int height) {
+        if (luma == null) throw new NullPointerException();
+
+        boolean resized = prepareGrid(width, height);
+        if (mIntegral == null || mIntegral.getWidth() != width || mIntegral.getHeight() != height) {
+            mIntegral = new IntegralImage(width, height);
+        }
+
+        mIntegral.update(luma, width, height);
+        mHasPrevious = true;
+        // the lighting estimate needs every box, the table has them all anyway
+        mGrid.means(mIntegral, mBoxMeans, mCompensateLighting ? null : mBoxZones);
+        return updateModel() || resized;
+    }
+
+    /**
+     * Detect motion from the Y plane against the background model. Frames
+     * below the minimum luma are neither compared nor learned. {@inheritDoc}
+     */
+    @Override
+    public boolean detect(byte[] yuv420sp, int width, int height) {
+        if (yuv420sp == null) throw new NullPointerException();
+
+        boolean resized = prepareGrid(width, height);
+        long lumaSum = mAggregator.aggregate(yuv420sp, 0, mBoxMeans);
+        if (mCompensateLighting && mOutside != null) mOutside.fill(yuv420sp, 0, mBoxMeans);
+        return compareFrame(lumaSum, resized);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean detect(ByteBuffer yuv420sp, int width, int height) {
+        if (yuv420sp == null) throw new NullPointerException();
+
+        boolean resized = prepareGrid(width, height);
+        long lumaSum = mAggregator.aggregate(yuv420sp, mBoxMeans);
+        if (mCompensateLighting && mOutside != null) mOutside.fill(yuv420sp, mBoxMeans);
+        return compareFrame(lumaSum, resized);
+    }
+
+    private boolean compareFrame(long lumaSum, boolean resized) {
+        mLumaSum = lumaSum;
+        mTooDark = lumaSum < mMinLuma;
+        if (mTooDark) {
+            mLightingChange = false;
+            mMotionZones = 0;
+            mRegion.reset();
+            return false;
+        }
+        return updateModel() || resized;
+    }
+
+    /**
+     * Classify every box against the background, then fold the box means
+     * into the background and noise estimates. The first frame only seeds
+     * the model. With lighting compensation the whole background first
+     * moves by the median difference to the frame, so a light switching on
+     * relights the background instead of turning every box foreground.
+     * Boxes outside every zone are never compared. With lighting compensation
+     * they are still learned, so the lighting change is taken over the whole
+     * frame rather than over the few boxes of a zone.
+     *
+     * @return True if any box is foreground.
+     */
+    private boolean updateModel() {
+        final int count = mGrid.getBoxCount();
+        mLightingChange = false;
+        mMotionZones = 0;
+        mRegion.reset();
+        if (!mSeeded) {
+            for (int i = 0; i < count; i++) {
+                mBackground[i] = mBoxMeans[i] << FIXED_SHIFT;
+                mNoise[i] = 0;
+                mForeground[i] = false;
+            }
+            mSeeded = true;
+            mForegroundBoxes = 0;
+            return false;
+        }
+
+        final int floor = mLeniency << FIXED_SHIFT;
+        int offset = 0;
+        if (mCompensateLighting) {
+            for (int i = 0; i < count; i++) {
+                mSamples[i] = mBoxMeans[i] << FIXED_SHIFT;
+            }
+            offset = mLighting.offset(mSamples, mBackground, count);
+            for (int i = 0; i < count; i++) {
+                mBackground[i] += offset;
+            }
+        }
+
+        int foreground = 0;
+        int zones = 0;
+        for (int i = 0; i < count; i++) {
+            if (mBoxZones != null && mBoxZones[i] == 0) {
+                mForeground[i] = false;
+                if (mCompensateLighting) mBackground[i] += ((mBoxMeans[i] << FIXED_SHIFT) - mBackground[i]) >> mLearningShift;
+                continue;
+            }
+            int sample = mBoxMeans[i] << FIXED_SHIFT;
+            int diff = sample - mBackground[i];
+            int deviation = Math.abs(diff);
+            int threshold = Math.max(floor, mNoise[i] * mNoiseFactor);
+
+            if (deviation > threshold) {
+                mForeground[i] = true;
+                foreground++;
+                if (mBoxZones != null) zones |= mBoxZones[i];
+                mRegion.add(mGrid, i, deviation >> FIXED_SHIFT);
+                mBackground[i] += diff >> (mLearningShift + FOREGROUND_SHIFT);
+            } else {
+                mForeground[i] = false;
+                mBackground[i] += diff >> mLearningShift;
+                mNoise[i] += (deviation - mNoise[i]) >> mLearningShift;
+            }
+        }
+        mForegroundBoxes = foreground;
+        mMotionZones = zones;
+        mRegion.finish(mWatchedArea);
+        mLightingChange = foreground == 0 && Math.abs(offset) > floor;
+        return foreground > 0;
+    }
+
+    /**
+     * Make sure the grid and model fit a frame of the given size, allocating
+     * them only when the size or the grid changes. A new grid starts a new
+     * model.
+     *
+     * @return True if a model for a differently sized frame was dropped.
+     */
+    private boolean prepareGrid(int width, int height) {
+        if (mGrid != null && mGrid.matches(width, height, mXBoxes, mYBoxes)
+                && mAggregator.getStep() == mDecimation) {
+            return false;
+        }
+
+        boolean resized = mSeeded;
+        mGrid = new BoxGrid(width, height, mXBoxes, mYBoxes);
+        mAggregator = new BoxAggregator(mGrid, mDecimation);
+        final int count = mGrid.getBoxCount();
+        mBoxMeans = new int[count];
+        mSamples = new int[count];
+        mBackground = new int[count];
+        mNoise = new int[count];
+        mForeground = new boolean[count];
+        mSeeded = false;
+        applyZones();
+        applyParallel();
+        return resized;
+    }
+
+    /**
+     * Lay the zones over the current grid and mask the aggregator with them.
+     */
+    private void applyZones() {
+        if (mGrid == null) return;
+        if (mZones == null) {
+            mBoxZones = null;
+            mOutside = null;
+        } else {
+            if (mBoxZones == null || mBoxZones.length != mGrid.getBoxCount()) mBoxZones = new int[mGrid.getBoxCount()];
+            mZones.masks(mGrid, mBoxZones);
+            mOutside = new OutsideZoneSampler(mGrid, mDecimation, mBoxZones);
+        }
+        mAggregator.setMask(mBoxZones);
+        mWatchedArea = mGrid.area(mBoxZones);
+    }
+
+    private void applyParallel() {
+        if (mAggregator == null) return;
+        if (mParallel) {
+            mAggregator.setParallel(MotionWorkers.get(), MotionWorkers.getStripes(), mParallelThreshold);
+        } else {
+            mAggregator.setParallel(null, 1, 0);
+        }
+    }
+
+    /**
+     * Was the box foreground in the last compared frame.
+     *
+     * @param index
+     *            Box index, row by row as in {@link BoxGrid}.
+     * @return True if the box differed from the background.
+     */
+    public boolean isForeground(int index) {
+        return mForeground != null && mForeground[index];
+    }
+
+    /**
+     * Number of foreground boxes in the last compared frame.
+     *
+     * @return int representing the number of boxes.
+     */
+    public int getForegroundBoxes() {
+        return mForegroundBoxes;
+    }
+
+    /**
+     * Background mean luma of a box.
+     *
+     * @param index
+     *            Box index, row by row as in {@link BoxGrid}.
+     * @return int background luma, rounded down.
+     */
+    public int getBackground(int index) {
+        return mBackground[index] >> FIXED_SHIFT;
+    }
+
+    /**
+     * Grid of the last frame, or null before the first frame.
+     *
+     * @return BoxGrid the model is kept on.
+     */
+    public BoxGrid getGrid() {
+        return mGrid;
+    }
+
+    public void setLeniency(int l) {
+        mLeniency = l;
+    }
+
+    /**
+     * Set the luma sum below which a YUV frame is too dark to compare.
+     *
+     * @param minLuma
+     *            Minimum sum of the luma of every pixel.
+     */
+    public void setMinLuma(int minLuma) {
+        mMinLuma = minLuma;
+    }
+
+    /**
+     * Read only every step-th pixel of every step-th row on the YUV path.
+     *
+     * @param step
+     *            Decimation step, 1 to read every pixel.
+     * @see AggregateLumaMotionDetection#setDecimation(int)
+     */
+    public void setDecimation(int step) {
+        if (step <= 0) throw new IllegalArgumentException();
+        mDecimation = step;
+    }
+
+    /**
+     * Set how quickly the background follows the scene. Each frame moves the
+     * background 1/2^shift of the way towards it, so 5 takes roughly 32
+     * frames to settle after a change.
+     *
+     * @param shift
+     *            Learning rate as a power of two, from 1 to 15.
+     */
+    public void setLearningShift(int shift) {
+        if (shift < 1 || shift > 15) throw new IllegalArgumentException();
+        mLearningShift = shift;
+    }
+
+    /**
+     * Set how many mean deviations from the background a box must stray
+     * before it is foreground. The leniency still applies as a floor.
+     *
+     * @param factor
+     *            Multiple of the per box noise.
+     */
+    public void setNoiseFactor(int factor) {
+        if (factor <= 0) throw new IllegalArgumentException();
+        mNoiseFactor = factor;
+    }
+
+    /**
+     * Set the size of the comparison grid.
+     *
+     * @param xBoxes
+     *            Number of boxes across the image.
+     * @param yBoxes
+     *            Number of boxes down the image.
+     */
+    public void setBoxes(int xBoxes, int yBoxes) {
+        if (xBoxes <= 0 || yBoxes <= 0) throw new IllegalArgumentException();
+        mXBoxes = xBoxes;
+        mYBoxes = yBoxes;
+        setZones(null);
+    }
+
+    /**
+     * Let the background follow changes in lighting across the whole frame
+     * at once instead of learning them box by box.
+     *
+     * @param compensate
+     *            True to ignore lighting changes.
+     */
+    public void setLightingCompensation(boolean compensate) {
+        mCompensateLighting = compensate;
+    }
+
+    /**
+     * Only look for motion inside the given zones. Boxes outside every zone
+     * are not read on the YUV path, other than a coarse pass for the
+     * lighting estimate when lighting compensation is on.
+     *
+     * @param zones
+     *            Zones laid out on the same box counts as this detector, or
+     *            NULL to look at the whole frame.
+     */
+    public void setZones(MotionZones zones) {
+        if (zones != null && (zones.getXBoxes() != mXBoxes || zones.getYBoxes() != mYBoxes)) {
+            throw new IllegalArgumentException("Zones do not match the grid");
+        }
+        mZones = zones;
+        mMotionZones = 0;
+        mSeeded = false;
+        applyZones();
+    }
+
+    /**
+     * Aggregate large frames in stripes on the shared {@link MotionWorkers}
+     * pool. Results are the same as on a single thread.
+     *
+     * @param parallel
+     *            True to split frames above the threshold.
+     */
+    public void setParallel(boolean parallel) {
+        mParallel = parallel;
+        applyParallel();
+    }
+
+    /**
+     * Set the number of sampled pixels from which a frame is split into
+     * stripes. Below it handing work to other threads costs more than it
+     * saves.
+     *
+     * @param minSamples
+     *            Sampled pixels per frame, {@link MotionWorkers#DEFAULT_THRESHOLD}
+     *            by default.
+     */
+    public void setParallelThreshold(int minSamples) {
+        mParallelThreshold = minSamples;
+        applyParallel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMotionZones() {
+        return mMotionZones;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MotionRegion getMotionRegion() {
+        return mRegion;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLightingChange() {
+        return mLightingChange;
+    }
+
+    /**
+     * Paint the outline of every foreground box. {@inheritDoc}
+     */
+    @Override
+    public void paintDifferences(int[] data) {
+        if (data == null) throw new NullPointerException();
+        if (mGrid == null || mForeground == null) return;
+
+        for (int i = 0; i < mForeground.length; i++) {
+            if (mForeground[i]) mGrid.paintOutline(data, i, ImageProcessing.RED);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTooDark() {
+        return mTooDark;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLumaSum() {
+        return mLumaSum;
+    }
+
+    /**
+     * Forget the background, the next frame seeds a new one.
+     */
+    public void clear() {
+        mHasPrevious = false;
+        mSeeded = false;
+        mForegroundBoxes = 0;
+        mLightingChange = false;
+        mMotionZones = 0;
+        mRegion.reset();
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reduces the Y plane of a YUV420SP frame to box means in a single pass over
+ * the bytes, without widening the plane into an int array first. The frame
+ * luma sum used for the too dark check is gathered in the same pass.
+ *
+ * With a decimation step above one only every step-th pixel of every step-th
+ * row is read, so a step of 4 or 8 touches 1/16 or 1/64 of the plane. Box
+ * means are then the mean of the sampled pixels and the luma sum is scaled
+ * up to the full frame.
+ *
+ * A box mask restricts the pass to the boxes of interest. Masked out boxes
+ * are never read, rows of boxes with nothing of interest are skipped whole,
+ * and the luma sum is scaled up from the boxes that were read.
+ *
+ * Luma follows {@link ImageProcessing#decodeYUV420SPtoLuma(byte[], int, int)}:
+ * the Y value less 16, clamped at zero.
+ */
+public class BoxAggregator {
+
+    private static final int[] LUMA = new int[256];
+
+    static {
+        for (int i = 0; i < LUMA.length; i++) {
+            LUMA[i] = Math.max(i - 16, 0);
+        }
+    }
+
+    private final BoxGrid grid;
+    private final int step;
+    private final int[] sums;
+    private final int[] counts;
+    private final int[] firstColumns;
+    private final boolean[] activeBoxes;
+    private final boolean[] activeRows;
+    private int samples;
+    private long lumaSum;
+
+    private final List<Stripe> stripes = new ArrayList<Stripe>();
+    private ExecutorService executor = null;
+    private int minParallelSamples = 0;
+
+    public BoxAggregator(BoxGrid grid) {
+        this(grid, 1);
+    }
+
+    /**
+     * @param grid
+     *            Box layout of the frames to aggregate.
+     * @param step
+     *            Decimation step, 1 to read every pixel.
+     */
+    public BoxAggregator(BoxGrid grid, int step) {
+        if (grid == null) throw new NullPointerException();
+        if (step <= 0) throw new IllegalArgumentException("Decimation step must be positive");
+
+        this.grid = grid;
+        this.step = step;
+        this.sums = new int[grid.getBoxCount()];
+        this.counts = new int[grid.getBoxCount()];
+        this.firstColumns = new int[grid.getXBoxes()];
+        this.activeBoxes = new boolean[grid.getBoxCount()];
+        this.activeRows = new boolean[grid.getYBoxes()];
+
+        for (int x = 0; x < grid.getXBoxes(); x++) {
+            firstColumns[x] = ceil(grid.getLeft(x), step) * step;
+        }
+        for (int y = 0, i = 0; y < grid.getYBoxes(); y++) {
+            int rows = sampled(grid.getTop(y), grid.getBoxHeight(y));
+            for (int x = 0; x < grid.getXBoxes(); x++, i++) {
+                counts[i] = rows * sampled(grid.getLeft(x), grid.getBoxWidth(x));
+            }
+        }
+        setMask(null);
+    }
+
+    /**
+     * Restrict aggregation to some of the boxes. Masked out boxes get a mean
+     * of zero.
+     *
+     * @param mask
+     *            Array of {@link BoxGrid#getBoxCount()} entries, non zero for
+     *            every box to read, or NULL to read every box.
+     */
+    public void setMask(int[] mask) {
+        if (mask != null && mask.length < grid.getBoxCount()) throw new IllegalArgumentException("Mask is smaller than the grid");
+
+        int total = 0;
+        for (int y = 0, i = 0; y < grid.getYBoxes(); y++) {
+            activeRows[y] = false;
+            for (int x = 0; x < grid.getXBoxes(); x++, i++) {
+                activeBoxes[i] = mask == null || mask[i] != 0;
+                if (activeBoxes[i]) {
+                    activeRows[y] = true;
+                    total += counts[i];
+                }
+            }
+        }
+        this.samples = total;
+    }
+
+    /**
+     * Split every frame with at least the given number of samples into
+     * stripes of box rows and aggregate the stripes on an executor. Each
+     * stripe only writes the sums and means of its own boxes, and the luma
+     * sums of the stripes are added up in stripe order, so the result is the
+     * same as on a single thread. The calling thread works on the first
+     * stripe itself. Stripes are handed to the executor as they are, with no
+     * future or task wrapped around them, so an executor whose queue does
+     * not allocate either, like the one of {@link MotionWorkers}, keeps the
+     * parallel path free of allocation too. A stripe the executor rejects
+     * runs on the calling thread.
+     *
+     * @param executor
+     *            Executor for the other stripes, or NULL to stay on the
+     *            calling thread.
+     * @param stripes
+     *            Number of stripes, capped at the number of box rows.
+     * @param minSamples
+     *            Smallest number of sampled pixels worth splitting.
+     */
+    public void setParallel(ExecutorService executor, int stripes, int minSamples) {
+        if (stripes <= 0) throw new IllegalArgumentException("Stripes must be positive");
+
+        this.executor = executor;
+        this.minParallelSamples = minSamples;
+        this.stripes.clear();
+        if (executor == null) return;
+
+        final int rows = grid.getYBoxes();
+        final int count = Math.min(stripes, rows);
+        for (int i = 0; i < count; i++) {
+            this.stripes.add(new Stripe((rows * i) / count, (rows * (i + 1)) / count));
+        }
+    }
+
+    /**
+     * Aggregate the Y plane held in a byte array.
+     *
+     * @param yuv420sp
+     *            Byte array holding a YUV420SP image.
+     * @param offset
+     *            Index of the first Y byte.
+     * @param means
+     *            Array of at least {@link BoxGrid#getBoxCount()} entries which
+     *            receives the box means, row by row.
+     * @return long sum of the luma of every pixel.
+     * @throws NullPointerException
+     *             if yuv420sp or means is NULL.
+     */
+    public long aggregate(byte[] yuv420sp, int offset, int[] means) {
+        if (yuv420sp == null || means == null) throw new NullPointerException();
+        if (offset < 0 || yuv420sp.length - offset < grid.getWidth() * grid.getHeight()) throw new IllegalArgumentException("Frame is smaller than the grid");
+
+        long total;
+        if (isParallel()) {
+            total = aggregateStripes(yuv420sp, null, offset, means);
+        } else {
+            total = aggregateRows(yuv420sp, offset, 0, grid.getYBoxes(), means);
+        }
+        lumaSum = scale(total);
+        return lumaSum;
+    }
+
+    /**
+     * Aggregate the Y plane held in a ByteBuffer, starting at its position.
+     * Array backed buffers are read through their array, direct buffers with
+     * absolute gets.
+     *
+     * @see #aggregate(byte[], int, int[])
+     */
+    public long aggregate(ByteBuffer yuv420sp, int[] means) {
+        if (yuv420sp == null || means == null) throw new NullPointerException();
+
+        if (yuv420sp.hasArray()) {
+            return aggregate(yuv420sp.array(), yuv420sp.arrayOffset() + yuv420sp.position(), means);
+        }
+        if (yuv420sp.remaining() < grid.getWidth() * grid.getHeight()) throw new IllegalArgumentException("Frame is smaller than the grid");
+
+        long total;
+        if (isParallel()) {
+            total = aggregateStripes(null, yuv420sp, yuv420sp.position(), means);
+        } else {
+            total = aggregateRows(yuv420sp, yuv420sp.position(), 0, grid.getYBoxes(), means);
+        }
+        lumaSum = scale(total);
+        return lumaSum;
+    }
+
+    private boolean isParallel() {
+        return executor != null && stripes.size() > 1 && samples >= minParallelSamples;
+    }
+
+    /**
+     * Aggregate the rows of boxes from first up to last.
+     *
+     * @return long luma sum of the sampled pixels in those rows.
+     */
+    private long aggregateRows(byte[] yuv420sp, int offset, int first, int last, int[] means) {
+        final int width = grid.getWidth();
+        final int xBoxes = grid.getXBoxes();
+        long total = 0;
+        for (int yBox = first, boxRow = first * xBoxes; yBox < last; yBox++, boxRow += xBoxes) {
+            clearRow(boxRow);
+            // rows of boxes with nothing of interest are never read
+            if (activeRows[yBox]) {
+                final int top = grid.getTop(yBox);
+                final int bottom = top + grid.getBoxHeight(yBox);
+                for (int y = ceil(top, step) * step; y < bottom; y += step) {
+                    final int row = offset + (y * width);
+                    for (int x = 0; x < xBoxes; x++) {
+                        if (!activeBoxes[boxRow + x]) continue;
+                        int sum = 0;
+                        for (int i = row + firstColumns[x], end = row + grid.getLeft(x) + grid.getBoxWidth(x); i < end; i += step) {
+                            sum += LUMA[yuv420sp[i] & 0xff];
+                        }
+                        sums[boxRow + x] += sum;
+                    }
+                }
+            }
+            total += closeRow(boxRow, means);
+        }
+        return total;
+    }
+
+    /**
+     * @see #aggregateRows(byte[], int, int, int, int[])
+     */
+    private long aggregateRows(ByteBuffer yuv420sp, int offset, int first, int last, int[] means) {
+        final int width = grid.getWidth();
+        final int xBoxes = grid.getXBoxes();
+        long total = 0;
+        for (int yBox = first, boxRow = first * xBoxes; yBox < last; yBox++, boxRow += xBoxes) {
+            clearRow(boxRow);
+            if (activeRows[yBox]) {
+                final int top = grid.getTop(yBox);
+                final int bottom = top + grid.getBoxHeight(yBox);
+                for (int y = ceil(top, step) * step; y < bottom; y += step) {
+                    final int row = offset + (y * width);
+                    for (int x = 0; x < xBoxes; x++) {
+                        if (!activeBoxes[boxRow + x]) continue;
+                        int sum = 0;
+                        for (int i = row + firstColumns[x], end = row + grid.getLeft(x) + grid.getBoxWidth(x); i < end; i += step) {
+                            sum += LUMA[yuv420sp.get(i) & 0xff];
+                        }
+                        sums[boxRow + x] += sum;
+                    }
+                }
+            }
+            total += closeRow(boxRow, means);
+        }
+        return total;
+    }
+
+    /**
+     * Hand every stripe but the first to the executor, aggregate the first
+     * one here and add up the luma sums in stripe order. Every stripe is
+     * waited for, even when another one failed or the thread is interrupted,
+     * as none may still be writing means or reading the frame once this
+     * returns. An interrupt is kept for the caller.
+     */
+    private long aggregateStripes(byte[] array, ByteBuffer buffer, int offset, int[] means) {
+        final int count = stripes.size();
+        for (int i = 1; i < count; i++) {
+            Stripe stripe = stripes.get(i);
+            stripe.start(array, buffer, offset, means);
+            try {
+                executor.execute(stripe);
+            } catch (RejectedExecutionException e) {
+                stripe.run();
+            }
+        }
+
+        Stripe first = stripes.get(0);
+        first.start(array, buffer, offset, means);
+        first.run();
+
+        long total = 0;
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (int i = 0; i < count; i++) {
+            Stripe stripe = stripes.get(i);
+            interrupted |= stripe.await();
+            total += stripe.total;
+            if (failure == null) failure = stripe.failure;
+            stripe.start(null, null, 0, null);
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        return total;
+    }
+
+    private void clearRow(int boxRow) {
+        for (int x = 0; x < grid.getXBoxes(); x++) {
+            sums[boxRow + x] = 0;
+        }
+    }
+
+    /**
+     * Turn the sums of a finished row of boxes into means.
+     *
+     * @return long sum of the luma in the row of boxes.
+     */
+    private long closeRow(int boxRow, int[] means) {
+        long total = 0;
+        for (int x = 0; x < grid.getXBoxes(); x++) {
+            int sum = sums[boxRow + x];
+            int count = counts[boxRow + x];
+            total += sum;
+            means[boxRow + x] = (count > 0) ? sum / count : 0;
+        }
+        return total;
+    }
+
+    private long scale(long total) {
+        if (samples == 0 || samples == grid.getWidth() * grid.getHeight()) return total;
+        return (total * grid.getWidth() * grid.getHeight()) / samples;
+    }
+
+    /**
+     * Number of multiples of the step in [start, start + length).
+     */
+    private int sampled(int start, int length) {
+        return ceil(start + length, step) - ceil(start, step);
+    }
+
+    private static int ceil(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Luma sum of the last aggregated frame.
+     *
+     * @return long sum of the luma of every pixel.
+     */
+    public long getLumaSum() {
+        return lumaSum;
+    }
+
+    public BoxGrid getGrid() {
+        return grid;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * A range of box rows aggregated on a worker, reused frame after frame.
+     * The frame is handed over before the stripe is executed and dropped
+     * once its result is in. The stripe's monitor hands the result, and the
+     * means it wrote, back to the calling thread.
+     */
+    private class Stripe implements Runnable {
+
+        private final int first;
+        private final int last;
+        private byte[] array;
+        private ByteBuffer buffer;
+        private int offset;
+        private int[] means;
+        private boolean done;
+        long total;
+        Throwable failure;
+
+        Stripe(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        synchronized void start(byte[] array, ByteBuffer buffer, int offset, int[] means) {
+            this.array = array;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.means = means;
+            this.done = false;
+            this.total = 0;
+            this.failure = null;
+        }
+
+        @Override
+        public void run() {
+            final byte[] array;
+            final ByteBuffer buffer;
+            final int offset;
+            final int[] means;
+            synchronized (this) {
+                array = this.array;
+                buffer = this.buffer;
+                offset = this.offset;
+                means = this.means;
+            }
+            long result = 0;
+            Throwable thrown = null;
+            try {
+                if (array != null) {
+                    result = aggregateRows(array, offset, first, last, means);
+                } else {
+                    result = aggregateRows(buffer, offset, first, last, means);
+                }
+            } catch (Throwable t) {
+                // handed to the calling thread, which throws it
+                thrown = t;
+            }
+            synchronized (this) {
+                total = result;
+                failure = thrown;
+                done = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wait for the stripe to finish, through interrupts.
+         *
+         * @return True if the thread was interrupted while waiting.
+         */
+        synchronized boolean await() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            return interrupted;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.Arrays;
+
+/**
+ * Layout of the comparison boxes over an image. Boxes are laid out the same
+ * way as in {@link Comparer}: equal boxes from the top left, plus one narrower
+ * box at the right and bottom edges when the image does not divide evenly.
+ * Boxes are numbered row by row, so box (x, y) is index y * xBoxes + x.
+ */
+public class BoxGrid {
+
+    private final int width;
+    private final int height;
+    private final int requestedXBoxes;
+    private final int requestedYBoxes;
+    private int xBoxes;
+    private int yBoxes;
+    private int xPixelsPerBox;
+    private int yPixelsPerBox;
+    private int xLeftOver;
+    private int yLeftOver;
+
+    public BoxGrid(int width, int height, int xBoxes, int yBoxes) {
+        if (width <= 0 || height <= 0 || xBoxes <= 0 || yBoxes <= 0) throw new IllegalArgumentException();
+
+        this.width = width;
+        this.height = height;
+        this.requestedXBoxes = xBoxes;
+        this.requestedYBoxes = yBoxes;
+
+        this.xBoxes = Math.min(xBoxes, width);
+        this.yBoxes = Math.min(yBoxes, height);
+
+        // how many points per box
+        this.xPixelsPerBox = width / this.xBoxes;
+        this.yPixelsPerBox = height / this.yBoxes;
+
+        this.xLeftOver = width - (this.xBoxes * this.xPixelsPerBox);
+        if (xLeftOver > 0) this.xBoxes++;
+        this.yLeftOver = height - (this.yBoxes * this.yPixelsPerBox);
+        if (yLeftOver > 0) this.yBoxes++;
+    }
+
+    /**
+     * Does this grid describe the given image and requested box counts.
+     *
+     * @return True if the grid can be reused as is.
+     */
+    public boolean matches(int width, int height, int xBoxes, int yBoxes) {
+        return this.width == width && this.height == height
+                && this.requestedXBoxes == xBoxes && this.requestedYBoxes == yBoxes;
+    }
+
+    /**
+     * Fill out with the mean of every box, row by row.
+     *
+     * @param image
+     *            Summed-area table of an image with this grid's dimensions.
+     * @param out
+     *            Array of at least {@link #getBoxCount()} entries.
+     */
+    public void means(IntegralImage image, int[] out) {
+        means(image, out, null);
+    }
+
+    /**
+     * Fill out with the mean of every box in the mask, row by row. Boxes
+     * outside the mask are left alone.
+     *
+     * @param mask
+     *            Array of {@link #getBoxCount()} entries, non zero for every
+     *            box to compute, or NULL for every box.
+     * @see #means(IntegralImage, int[])
+     */
+    public void means(IntegralImage image, int[] out, int[] mask) {
+        if (image == null || out == null) throw new NullPointerException();
+
+        for (int y = 0, i = 0; y < yBoxes; y++) {
+            int top = getTop(y);
+            int yPix = getBoxHeight(y);
+            for (int x = 0; x < xBoxes; x++, i++) {
+                if (mask != null && mask[i] == 0) continue;
+                out[i] = image.getMean(getLeft(x), top, getBoxWidth(x), yPix);
+            }
+        }
+    }
+
+    /**
+     * Number of pixels inside the boxes of a mask.
+     *
+     * @param mask
+     *            Array of {@link #getBoxCount()} entries, non zero for every
+     *            box to count, or NULL for every box.
+     * @return long area in pixels.
+     */
+    public long area(int[] mask) {
+        if (mask == null) return (long) width * height;
+
+        long area = 0;
+        for (int y = 0, i = 0; y < yBoxes; y++) {
+            for (int x = 0; x < xBoxes; x++, i++) {
+                if (mask[i] != 0) area += (long) getBoxWidth(x) * getBoxHeight(y);
+            }
+        }
+        return area;
+    }
+
+    /**
+     * Draw the outline of a box into an image laid out by this grid.
+     *
+     * @param data
+     *            Array of width * height pixels, row by row.
+     * @param index
+     *            Box index, row by row.
+     * @param color
+     *            Pixel value of the outline.
+     * @throws NullPointerException
+     *             if data is NULL.
+     */
+    public void paintOutline(int[] data, int index, int color) {
+        if (data == null) throw new NullPointerException();
+        if (data.length < width * height) throw new IllegalArgumentException("Image is smaller than the grid");
+
+        final int xBox = index % xBoxes;
+        final int yBox = index / xBoxes;
+        final int left = getLeft(xBox);
+        final int xPix = getBoxWidth(xBox);
+        final int yPix = getBoxHeight(yBox);
+        final int top = getTop(yBox) * width + left;
+        final int bottom = top + (yPix - 1) * width;
+
+        Arrays.fill(data, top, top + xPix, color);
+        Arrays.fill(data, bottom, bottom + xPix, color);
+        for (int row = top + width; row < bottom; row += width) {
+            data[row] = color;
+            data[row + xPix - 1] = color;
+        }
+    }
+
+    public int getLeft(int xBox) {
+        return xBox * xPixelsPerBox;
+    }
+
+    public int getTop(int yBox) {
+        return yBox * yPixelsPerBox;
+    }
+
+    public int getBoxWidth(int xBox) {
+        return (xBox == (xBoxes - 1) && xLeftOver > 0) ? xLeftOver : xPixelsPerBox;
+    }
+
+    public int getBoxHeight(int yBox) {
+        return (yBox == (yBoxes - 1) && yLeftOver > 0) ? yLeftOver : yPixelsPerBox;
+    }
+
+    /**
+     * Number of X Boxes, including a narrower edge box.
+     *
+     * @return int representing the number of X boxes.
+     */
+    public int getXBoxes() {
+        return xBoxes;
+    }
+
+    /**
+     * Number of Y Boxes, including a shorter edge box.
+     *
+     * @return int representing the number of Y boxes.
+     */
+    public int getYBoxes() {
+        return yBoxes;
+    }
+
+    public int getBoxCount() {
+        return xBoxes * yBoxes;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
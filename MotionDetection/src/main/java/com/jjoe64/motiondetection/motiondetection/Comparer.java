@@ -16,8 +16,6 @@
 
 package com.jjoe64.motiondetection.motiondetection;
 
-import android.graphics.Color;
-
 
 public class Comparer {
 
@@ -32,6 +30,7 @@ public class Comparer {
     private int rowWidthInPix;
     private int colWidthInPix;
     private int leniency;
+    private int offset;
     private int debugMode; // 1: textual indication of change, 2: difference of
                            // factors
 
@@ -39,6 +38,16 @@ public class Comparer {
     private boolean different = false;
 
     public Comparer(State s1, State s2, int xBoxes, int yBoxes, int leniency, int debug) {
+        this(s1, s2, xBoxes, yBoxes, leniency, debug, 0);
+    }
+
+    /**
+     * @param offset
+     *            Change in lighting from s2 to s1, subtracted from the
+     *            difference of every box before it is held against the
+     *            leniency.
+     */
+    public Comparer(State s1, State s2, int xBoxes, int yBoxes, int leniency, int debug, int offset) {
         this.state1 = s1;
         this.state2 = s2;
 
@@ -49,6 +58,7 @@ public class Comparer {
         if (this.yBoxes > s1.getHeight()) this.yBoxes = s1.getHeight();
 
         this.leniency = leniency;
+        this.offset = offset;
         this.debugMode = 0;
 
         // how many points per box
@@ -99,7 +109,7 @@ public class Comparer {
             for (int x = 0; x < xBoxes; x++) {
                 b1 = aggregateMapArea(state1.getMap(), x, y);
                 b2 = aggregateMapArea(state2.getMap(), x, y);
-                diff = Math.abs(b1 - b2);
+                diff = Math.abs(b1 - b2 - offset);
                 variance[y][x] = diff;
                 // the difference in a certain region has passed the threshold
                 // value
@@ -145,7 +155,7 @@ public class Comparer {
 
         for (int y = 0; y < yBoxes; y++) {
             for (int x = 0; x < xBoxes; x++) {
-                if (variance[y][x] > leniency) paint(data, x, y, Color.RED);
+                if (variance[y][x] > leniency) paint(data, x, y, ImageProcessing.RED);
             }
         }
     }
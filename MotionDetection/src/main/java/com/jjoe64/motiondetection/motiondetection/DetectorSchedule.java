@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Decides which camera frames a detector gets, so every detector can run at
+ * its own rate however fast the camera is. A detector is due once its period
+ * has passed since the last run was due, which spreads the runs evenly over
+ * the frames, e.g. two frames in three for 10 fps out of a 15 fps camera. A
+ * detector that was idle for long does not catch up with a burst.
+ *
+ * The rate actually achieved, which can only be lower than the target when
+ * frames come slower or a run takes longer than its period, is kept as an
+ * average over the last few runs.
+ */
+public class DetectorSchedule {
+
+    private static final double RATE_WEIGHT = 0.1;
+
+    private final float fps;
+    private final long period;
+    private long due = 0;
+    private long lastRun = 0;
+    private long runs = 0;
+    private long skipped = 0;
+    private double interval = 0;
+
+    /**
+     * @param fps
+     *            Target rate in runs per second, 0 or less to run on every
+     *            frame.
+     */
+    public DetectorSchedule(float fps) {
+        this.fps = fps;
+        this.period = fps > 0 ? (long) (1e9 / fps) : 0;
+    }
+
+    /**
+     * Whether the detector should run on a frame, counting the run or skip.
+     * 
+     * @param now
+     *            {@link System#nanoTime()} of the frame.
+     * @return True if the detector is due.
+     */
+    public synchronized boolean shouldRun(long now) {
+        if (runs > 0 && now - due < 0) {
+            skipped++;
+            return false;
+        }
+
+        due = runs == 0 || now - due > period ? now + period : due + period;
+        if (runs > 0) {
+            final long elapsed = now - lastRun;
+            interval = interval == 0 ? elapsed : interval + (elapsed - interval) * RATE_WEIGHT;
+        }
+        lastRun = now;
+        runs++;
+        return true;
+    }
+
+    /**
+     * Count a frame the detector did not get for another reason, such as no
+     * demand for it.
+     */
+    public synchronized void skip() {
+        skipped++;
+    }
+
+    public float getTargetRate() {
+        return fps;
+    }
+
+    /**
+     * Rate achieved over the last runs.
+     * 
+     * @return float runs per second, 0 before the second run.
+     */
+    public synchronized float getRate() {
+        return interval > 0 ? (float) (1e9 / interval) : 0;
+    }
+
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+}
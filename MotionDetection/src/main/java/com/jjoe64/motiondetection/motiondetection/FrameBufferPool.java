@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded set of frame buffers, so frames that outlive the camera's own
+ * buffer are copied into memory that is allocated once and reused. Buffers
+ * are made on demand up to the capacity; after that {@link #acquire(int)}
+ * gives NULL until one is released, which tells the producer its consumers
+ * are lagging and the frame should be dropped.
+ *
+ * All buffers have the size of the last request; when the frame size changes
+ * the free buffers are dropped, and buffers of the old size are let go as
+ * they come back.
+ */
+public class FrameBufferPool {
+
+    private final int capacity;
+    private final ArrayDeque<byte[]> free;
+    private int size = 0;
+    private int outstanding = 0;
+    private long exhausted = 0;
+
+    /**
+     * @param capacity
+     *            Most buffers that can be out at once.
+     * @throws IllegalArgumentException
+     *             if capacity is not positive.
+     */
+    public FrameBufferPool(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+        this.capacity = capacity;
+        this.free = new ArrayDeque<byte[]>(capacity);
+    }
+
+    /**
+     * Take a buffer.
+     * 
+     * @param size
+     *            Size of the buffer in bytes.
+     * @return byte array of exactly size bytes, with the contents of an
+     *         earlier frame, or NULL if all buffers are out.
+     */
+    public synchronized byte[] acquire(int size) {
+        if (size != this.size) {
+            free.clear();
+            this.size = size;
+        }
+        byte[] buffer = free.poll();
+        if (buffer == null) {
+            if (outstanding >= capacity) {
+                exhausted++;
+                return null;
+            }
+            buffer = new byte[size];
+        }
+        outstanding++;
+        return buffer;
+    }
+
+    /**
+     * Give back a buffer taken with {@link #acquire(int)}. It must not be
+     * used afterwards, nor released twice.
+     * 
+     * @param buffer
+     *            Buffer to give back.
+     * @throws NullPointerException
+     *             if buffer is NULL.
+     */
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null) throw new NullPointerException();
+
+        if (outstanding > 0) outstanding--;
+        if (buffer.length == size && free.size() + outstanding < capacity) free.push(buffer);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Buffers taken and not given back yet.
+     * 
+     * @return int number of buffers out.
+     */
+    public synchronized int getOutstanding() {
+        return outstanding;
+    }
+
+    /**
+     * Requests turned down because every buffer was out.
+     * 
+     * @return long number of frames that found the pool empty.
+     */
+    public synchronized long getExhausted() {
+        return exhausted;
+    }
+}
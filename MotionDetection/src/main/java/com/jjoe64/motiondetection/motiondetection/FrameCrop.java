@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.Arrays;
+
+/**
+ * Cuts a region out of a camera frame and shrinks it for a detector that
+ * need not see the whole frame at full resolution, such as a QR code reader
+ * whose codes are held up in front of the lens. The region is given as
+ * fractions of the frame and the result is an NV21 frame of its own, the luma
+ * averaged over scale by scale pixels and the chroma left grey, since the
+ * detectors only look at the luma.
+ *
+ * Points a detector finds in the result are mapped back onto the full frame
+ * with {@link #map(float[], int)}. Not thread safe, the result is written
+ * to the same buffer for every frame.
+ */
+public class FrameCrop {
+
+    private final float left;
+    private final float top;
+    private final float right;
+    private final float bottom;
+    private final int scale;
+
+    private int frameWidth = 0;
+    private int frameHeight = 0;
+    private int x;
+    private int y;
+    private int width;
+    private int height;
+    private byte[] buffer = null;
+
+    /**
+     * @param left
+     *            Left edge of the region, from 0 to 1 of the frame width.
+     * @param top
+     *            Top edge of the region, from 0 to 1 of the frame height.
+     * @param right
+     *            Right edge of the region, from 0 to 1 of the frame width.
+     * @param bottom
+     *            Bottom edge of the region, from 0 to 1 of the frame height.
+     * @param scale
+     *            Pixels of the frame in each direction that make one of the
+     *            result, 1 to keep the resolution.
+     */
+    public FrameCrop(float left, float top, float right, float bottom, int scale) {
+        if (left < 0 || top < 0 || right > 1 || bottom > 1 || left >= right || top >= bottom) {
+            throw new IllegalArgumentException("Region must lie within the frame");
+        }
+        if (scale < 1) throw new IllegalArgumentException("Scale must be at least 1");
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        this.scale = scale;
+    }
+
+    /**
+     * Region in the middle of the frame.
+     * 
+     * @param fraction
+     *            Part of the frame width and height kept, 1 for all of it.
+     * @param scale
+     *            Pixels of the frame in each direction that make one of the
+     *            result.
+     * @return FrameCrop of the centre.
+     */
+    public static FrameCrop center(float fraction, int scale) {
+        final float margin = (1 - Math.max(0.01f, Math.min(1, fraction))) / 2;
+        return new FrameCrop(margin, margin, 1 - margin, 1 - margin, scale);
+    }
+
+    /**
+     * Whether the result would be the frame itself, in which case it is
+     * better handed to the detector as it is.
+     * 
+     * @return True for the whole frame at full resolution.
+     */
+    public boolean isIdentity() {
+        return scale == 1 && left == 0 && top == 0 && right == 1 && bottom == 1;
+    }
+
+    /**
+     * Crop and shrink a frame.
+     * 
+     * @param nv21
+     *            Frame in NV21, only its luma is read.
+     * @param offset
+     *            Index of the first byte of the frame in nv21.
+     * @param frameWidth
+     *            Width of the frame.
+     * @param frameHeight
+     *            Height of the frame.
+     * @return byte array of the result in NV21, {@link #getWidth()} by
+     *         {@link #getHeight()}, reused for the next frame.
+     */
+    public byte[] apply(byte[] nv21, int offset, int frameWidth, int frameHeight) {
+        if (frameWidth != this.frameWidth || frameHeight != this.frameHeight) layout(frameWidth, frameHeight);
+
+        final byte[] out = buffer;
+        if (scale == 1) {
+            for (int row = 0, i = offset + y * frameWidth + x; row < height; row++, i += frameWidth) {
+                System.arraycopy(nv21, i, out, row * width, width);
+            }
+            return out;
+        }
+
+        final int area = scale * scale;
+        final int half = area / 2;
+        for (int row = 0, o = 0; row < height; row++) {
+            final int rowStart = offset + (y + row * scale) * frameWidth + x;
+            for (int col = 0; col < width; col++, o++) {
+                int sum = 0;
+                for (int dy = 0, i = rowStart + col * scale; dy < scale; dy++, i += frameWidth) {
+                    for (int dx = 0; dx < scale; dx++) {
+                        sum += nv21[i + dx] & 0xff;
+                    }
+                }
+                out[o] = (byte) ((sum + half) / area);
+            }
+        }
+        return out;
+    }
+
+    private void layout(int frameWidth, int frameHeight) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+
+        // NV21 wants even sizes, and the region has to hold whole blocks of scale pixels
+        final int step = 2 * scale;
+        x = Math.round(left * frameWidth / 2) * 2;
+        y = Math.round(top * frameHeight / 2) * 2;
+        int regionWidth = Math.max(step, (Math.round(right * frameWidth) - x) / step * step);
+        int regionHeight = Math.max(step, (Math.round(bottom * frameHeight) - y) / step * step);
+        if (x + regionWidth > frameWidth) x = Math.max(0, frameWidth - regionWidth) / 2 * 2;
+        if (y + regionHeight > frameHeight) y = Math.max(0, frameHeight - regionHeight) / 2 * 2;
+        width = Math.min(regionWidth, frameWidth - x) / step * 2;
+        height = Math.min(regionHeight, frameHeight - y) / step * 2;
+
+        final int size = width * height;
+        buffer = new byte[size + size / 2];
+        Arrays.fill(buffer, size, buffer.length, (byte) 128);
+    }
+
+    /**
+     * Map a point found in the result back onto the frame. Both are taken
+     * as seen after the quarter turns of rotation the detector applied.
+     * 
+     * @param point
+     *            x and y of the point in the result, replaced by those in
+     *            the frame.
+     * @param rotation
+     *            Clockwise quarter turns the detector gave both frames.
+     */
+    public void map(float[] point, int rotation) {
+        final float u = point[0];
+        final float v = point[1];
+
+        // undo the turn within the result
+        final float cropX;
+        final float cropY;
+        switch (rotation & 3) {
+            case 1:
+                cropX = v;
+                cropY = height - u;
+                break;
+            case 2:
+                cropX = width - u;
+                cropY = height - v;
+                break;
+            case 3:
+                cropX = width - v;
+                cropY = u;
+                break;
+            default:
+                cropX = u;
+                cropY = v;
+        }
+
+        // and turn again within the frame
+        final float fx = x + cropX * scale;
+        final float fy = y + cropY * scale;
+        switch (rotation & 3) {
+            case 1:
+                point[0] = frameHeight - fy;
+                point[1] = fx;
+                break;
+            case 2:
+                point[0] = frameWidth - fx;
+                point[1] = frameHeight - fy;
+                break;
+            case 3:
+                point[0] = fy;
+                point[1] = frameWidth - fx;
+                break;
+            default:
+                point[0] = fx;
+                point[1] = fy;
+        }
+    }
+
+    /**
+     * Width of the result, once a frame has been cropped.
+     * 
+     * @return int pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Height of the result, once a frame has been cropped.
+     * 
+     * @return int pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Size of the result in bytes, luma and chroma.
+     * 
+     * @return int bytes.
+     */
+    public int getLength() {
+        final int size = width * height;
+        return size + size / 2;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + " at " + x + "," + y + " scale " + scale;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes camera frames for streaming. Frames are NV21 as they come from the
+ * camera and already turned upright, see {@link YuvRotator}, so an encoder
+ * can work from the YUV planes without going through RGB.
+ */
+public interface FrameEncoder {
+
+    /**
+     * Encode a frame as a JPEG.
+     * 
+     * @param nv21
+     *            Byte array holding an NV21 frame.
+     * @param width
+     *            Width of the frame.
+     * @param height
+     *            Height of the frame.
+     * @param quality
+     *            JPEG quality from 1 to 100.
+     * @param out
+     *            Stream the JPEG is written to.
+     * @throws IOException
+     *             if the stream cannot be written.
+     * @throws NullPointerException
+     *             if nv21 or out is NULL.
+     */
+    void encode(byte[] nv21, int width, int height, int quality, OutputStream out) throws IOException;
+}
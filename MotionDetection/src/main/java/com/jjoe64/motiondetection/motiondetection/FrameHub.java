@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands each encoded frame to any number of consumers, so a frame is encoded
+ * once however many clients watch. The hub holds only the newest frame; every
+ * consumer has a {@link Cursor} and always gets the newest frame it has not
+ * seen yet, skipping the ones it fell behind on, so a slow client never holds
+ * up a fast one.
+ *
+ * Consumers that have taken everything there is are waiting, and their
+ * listeners are called on the publishing thread when the next frame arrives.
+ * {@link #hasDemand()} tells the producer whether any consumer waits at all,
+ * so frames need only be encoded when somebody will take them.
+ */
+public class FrameHub {
+
+    /**
+     * Told when a waiting cursor can take a new frame.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the publishing thread, without holding the hub, once per
+         * wait: the cursor stays quiet until it is polled again.
+         * 
+         * @param cursor
+         *            Cursor that can take a new frame.
+         */
+        void onFrameAvailable(Cursor cursor);
+    }
+
+    /**
+     * Position of one consumer in the hub.
+     */
+    public class Cursor {
+
+        private final Listener listener;
+        private long sequence;
+        private long skipped = 0;
+        private boolean waiting = true;
+        private boolean closed = false;
+
+        private Cursor(Listener listener, long sequence) {
+            this.listener = listener;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Take the newest frame this cursor has not seen, or start waiting
+         * for one.
+         * 
+         * @return SharedFrame the caller must release, or NULL if there is no
+         *         new frame yet.
+         */
+        public SharedFrame poll() {
+            synchronized (FrameHub.this) {
+                if (closed) return null;
+                if (latest != null && latest.getSequence() > sequence) {
+                    skipped += latest.getSequence() - sequence - 1;
+                    sequence = latest.getSequence();
+                    waiting = false;
+                    latest.acquire();
+                    return latest;
+                }
+                waiting = true;
+                return null;
+            }
+        }
+
+        /**
+         * Wait for a frame this cursor has not seen.
+         * 
+         * @param timeout
+         *            Longest wait in milliseconds.
+         * @return SharedFrame the caller must release, or NULL on timeout or
+         *         once the cursor is closed.
+         * @throws InterruptedException
+         *             if the thread is interrupted while waiting.
+         */
+        public SharedFrame take(long timeout) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + timeout;
+            synchronized (FrameHub.this) {
+                SharedFrame frame = poll();
+                while (frame == null && !closed) {
+                    final long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) return null;
+                    FrameHub.this.wait(left);
+                    frame = poll();
+                }
+                return frame;
+            }
+        }
+
+        /**
+         * Frames that were published while this cursor was busy and that it
+         * never got.
+         * 
+         * @return long number of skipped frames.
+         */
+        public long getSkipped() {
+            synchronized (FrameHub.this) {
+                return skipped;
+            }
+        }
+
+        /**
+         * Leave the hub. Frames already taken must still be released.
+         */
+        public void close() {
+            synchronized (FrameHub.this) {
+                if (closed) return;
+                closed = true;
+                cursors.remove(this);
+                FrameHub.this.notifyAll();
+            }
+        }
+    }
+
+    private final List<Cursor> cursors = new ArrayList<Cursor>();
+    private final SharedFrame.Recycler recycler;
+    private SharedFrame latest = null;
+    private long sequence = 0;
+
+    public FrameHub() {
+        this(null);
+    }
+
+    /**
+     * @param recycler
+     *            Takes the data of frames once nobody holds them, or NULL to
+     *            leave them to the garbage collector.
+     */
+    public FrameHub(SharedFrame.Recycler recycler) {
+        this.recycler = recycler;
+    }
+
+    /**
+     * Add a consumer. It starts out waiting for the next frame, so it does not
+     * get a stale one from before it joined.
+     * 
+     * @param listener
+     *            Told when a frame is available, or NULL for a consumer that
+     *            only uses {@link Cursor#take(long)}.
+     * @return Cursor of the new consumer.
+     */
+    public synchronized Cursor subscribe(Listener listener) {
+        Cursor cursor = new Cursor(listener, sequence);
+        cursors.add(cursor);
+        return cursor;
+    }
+
+    /**
+     * Publish a frame, replacing the one before. The hub takes over the data,
+     * which must not be changed afterwards.
+     * 
+     * @param data
+     *            Byte array holding the frame.
+     * @param length
+     *            Number of bytes used in data.
+     * @param timestamp
+     *            Time the frame was captured.
+     * @return long sequence number of the frame.
+     * @throws NullPointerException
+     *             if data is NULL.
+     */
+    public long publish(byte[] data, int length, long timestamp) {
+        if (data == null) throw new NullPointerException();
+
+        final SharedFrame previous;
+        final List<Cursor> ready = new ArrayList<Cursor>();
+        final long published;
+        synchronized (this) {
+            previous = latest;
+            published = ++sequence;
+            latest = new SharedFrame(data, length, published, timestamp, recycler);
+            for (Cursor cursor : cursors) {
+                if (cursor.waiting && cursor.listener != null) {
+                    cursor.waiting = false;
+                    ready.add(cursor);
+                }
+            }
+            notifyAll();
+        }
+        if (previous != null) previous.release();
+        for (Cursor cursor : ready) {
+            cursor.listener.onFrameAvailable(cursor);
+        }
+        return published;
+    }
+
+    /**
+     * Whether any consumer is waiting for a frame.
+     * 
+     * @return True if a published frame would be taken.
+     */
+    public synchronized boolean hasDemand() {
+        for (Cursor cursor : cursors) {
+            if (cursor.waiting) return true;
+        }
+        return false;
+    }
+
+    public synchronized int getConsumers() {
+        return cursors.size();
+    }
+
+    /**
+     * Sequence number of the newest frame, 0 before the first.
+     * 
+     * @return long sequence number.
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Drop the newest frame, for instance when the camera stops. Cursors stay
+     * subscribed and wait for the next one.
+     */
+    public void clear() {
+        final SharedFrame previous;
+        synchronized (this) {
+            previous = latest;
+            latest = null;
+        }
+        if (previous != null) previous.release();
+    }
+}
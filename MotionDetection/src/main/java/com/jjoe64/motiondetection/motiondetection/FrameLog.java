@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Recorded camera frames, so motion can be tuned and profiled by replaying a
+ * capture on any JVM instead of standing in front of a tablet.
+ *
+ * A frame log is big-endian throughout. It starts with {@link #MAGIC} and
+ * {@link #VERSION} as two ints, followed by one record per frame:
+ *
+ * <pre>
+ * int  length     bytes in the rest of the record
+ * int  format     {@link #FORMAT_NV21} or {@link #FORMAT_Y}
+ * int  width
+ * int  height
+ * long timestamp  milliseconds
+ * byte label      {@link #LABEL_UNKNOWN}, {@link #LABEL_QUIET} or {@link #LABEL_MOTION}
+ * byte[]          the plane, length - {@link #RECORD_HEADER} bytes
+ * </pre>
+ *
+ * The length prefix lets a reader step over records without looking at
+ * them, and since planes are stored as is a mapped log hands them to the
+ * detectors without copying.
+ */
+public final class FrameLog {
+
+    /** "WPFL" */
+    public static final int MAGIC = 0x5750464C;
+    public static final int VERSION = 1;
+
+    /** Full YUV420SP frame, the Y plane followed by interleaved V and U. */
+    public static final int FORMAT_NV21 = 0x11;
+    /** Y plane only, all the motion engines read. */
+    public static final int FORMAT_Y = 0x20203859;
+
+    /** Nobody said whether anything moved. */
+    public static final int LABEL_UNKNOWN = 0;
+    /** Nothing moved, so any detection is a false positive. */
+    public static final int LABEL_QUIET = 1;
+    /** Something moved, so a frame without a detection is a miss. */
+    public static final int LABEL_MOTION = 2;
+
+    /** Bytes of the file header. */
+    static final int FILE_HEADER = 8;
+    /** Bytes of a record after the length, up to the plane. */
+    static final int RECORD_HEADER = 4 + 4 + 4 + 8 + 1;
+
+    private FrameLog() {
+    }
+
+    /**
+     * Smallest plane a frame of the given format and size can have.
+     *
+     * @return int number of bytes.
+     * @throws IllegalArgumentException
+     *             if the format is unknown or the size is not positive.
+     */
+    public static int getPlaneSize(int format, int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        if (format == FORMAT_Y) return width * height;
+        if (format == FORMAT_NV21) return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+        throw new IllegalArgumentException("Unknown frame format " + format);
+    }
+}
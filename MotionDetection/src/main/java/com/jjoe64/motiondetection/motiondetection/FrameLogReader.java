@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a {@link FrameLog} through a memory mapping, one record at a time.
+ * Planes are handed out as read-only slices of the mapping, so nothing is
+ * copied and the page cache keeps a replayed log hot between runs.
+ *
+ * <pre>
+ * FrameLogReader reader = new FrameLogReader(file);
+ * while (reader.next()) {
+ *     detection.detect(reader.getData(), reader.getWidth(), reader.getHeight());
+ * }
+ * </pre>
+ *
+ * Logs are mapped whole, so they must stay under 2GB.
+ */
+public class FrameLogReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+    private int frames = 0;
+
+    private int format;
+    private int width;
+    private int height;
+    private long timestamp;
+    private int label;
+    private ByteBuffer data = null;
+
+    /**
+     * @throws IOException
+     *             if the file cannot be mapped or is not a frame log.
+     */
+    public FrameLogReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = this.file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Frame log over 2GB: " + file);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.remaining() < FrameLog.FILE_HEADER || mapped.getInt() != FrameLog.MAGIC) {
+                throw new IOException("Not a frame log: " + file);
+            }
+            int version = mapped.getInt();
+            if (version != FrameLog.VERSION) throw new IOException("Unsupported frame log version " + version);
+            this.buffer = mapped;
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Move to the next record.
+     *
+     * @return boolean True if there was one, false at the end of the log.
+     * @throws IOException
+     *             if the record is truncated or malformed.
+     */
+    public boolean next() throws IOException {
+        if (!buffer.hasRemaining()) {
+            data = null;
+            return false;
+        }
+        try {
+            final int length = buffer.getInt();
+            if (length < FrameLog.RECORD_HEADER || length > buffer.remaining()) throw new IOException("Truncated frame " + frames);
+            final int end = buffer.position() + length;
+            format = buffer.getInt();
+            width = buffer.getInt();
+            height = buffer.getInt();
+            timestamp = buffer.getLong();
+            label = buffer.get();
+
+            int size;
+            try {
+                size = FrameLog.getPlaneSize(format, width, height);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Frame " + frames + ": " + e.getMessage());
+            }
+            if (end - buffer.position() < size) throw new IOException("Frame " + frames + " is smaller than " + size + " bytes");
+
+            ByteBuffer slice = buffer.slice();
+            slice.limit(end - buffer.position());
+            data = slice.asReadOnlyBuffer();
+            buffer.position(end);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated frame " + frames);
+        }
+        frames++;
+        return true;
+    }
+
+    /**
+     * Go back to the first record, to replay the log again.
+     */
+    public void rewind() {
+        buffer.position(FrameLog.FILE_HEADER);
+        frames = 0;
+        data = null;
+    }
+
+    /**
+     * Number of records read since the start or the last rewind.
+     *
+     * @return int frames.
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getLabel() {
+        return label;
+    }
+
+    /**
+     * Plane of the current record. Only valid until the next call to
+     * {@link #next()}, or while the reader is open.
+     *
+     * @return ByteBuffer positioned at the first byte of the plane, or NULL
+     *         before the first and after the last record.
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
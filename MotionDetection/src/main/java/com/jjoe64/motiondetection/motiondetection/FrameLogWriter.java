@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes frames to a {@link FrameLog}. Not thread-safe, feed it from the
+ * thread that sees the frames.
+ */
+public class FrameLogWriter implements Closeable {
+
+    private final DataOutputStream out;
+    private byte[] copy = null;
+    private int frames = 0;
+    private long bytes = FrameLog.FILE_HEADER;
+
+    /**
+     * Start a new log in a file, replacing any log already there.
+     */
+    public FrameLogWriter(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    public FrameLogWriter(OutputStream out) throws IOException {
+        if (out == null) throw new NullPointerException();
+
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.out.writeInt(FrameLog.MAGIC);
+        this.out.writeInt(FrameLog.VERSION);
+    }
+
+    /**
+     * Append a frame.
+     *
+     * @param format
+     *            {@link FrameLog#FORMAT_NV21} or {@link FrameLog#FORMAT_Y}.
+     * @param width
+     *            Width of the frame.
+     * @param height
+     *            Height of the frame.
+     * @param timestamp
+     *            Time the frame was taken in milliseconds.
+     * @param label
+     *            One of the FrameLog labels.
+     * @param data
+     *            Array holding the frame. Only the plane is written, so the Y
+     *            plane of an NV21 frame can be logged as {@link FrameLog#FORMAT_Y}.
+     * @param offset
+     *            Index of the first byte of the frame.
+     * @throws IOException
+     *             if the log cannot be written.
+     * @throws IllegalArgumentException
+     *             if data is too small for the frame.
+     */
+    public void write(int format, int width, int height, long timestamp, int label, byte[] data, int offset) throws IOException {
+        if (data == null) throw new NullPointerException();
+
+        final int size = FrameLog.getPlaneSize(format, width, height);
+        if (offset < 0 || data.length - offset < size) throw new IllegalArgumentException("Frame is smaller than " + size + " bytes");
+
+        writeHeader(format, width, height, timestamp, label, size);
+        out.write(data, offset, size);
+        frames++;
+        bytes += 4 + FrameLog.RECORD_HEADER + size;
+    }
+
+    /**
+     * Append a frame held in a buffer, starting at its position, without
+     * changing the position.
+     *
+     * @see #write(int, int, int, long, int, byte[], int)
+     */
+    public void write(int format, int width, int height, long timestamp, int label, ByteBuffer data) throws IOException {
+        if (data == null) throw new NullPointerException();
+
+        if (data.hasArray()) {
+            write(format, width, height, timestamp, label, data.array(), data.arrayOffset() + data.position());
+            return;
+        }
+
+        final int size = FrameLog.getPlaneSize(format, width, height);
+        if (data.remaining() < size) throw new IllegalArgumentException("Frame is smaller than " + size + " bytes");
+        if (copy == null || copy.length < size) copy = new byte[size];
+        ByteBuffer source = data.duplicate();
+        source.get(copy, 0, size);
+        write(format, width, height, timestamp, label, copy, 0);
+    }
+
+    private void writeHeader(int format, int width, int height, long timestamp, int label, int size) throws IOException {
+        if (label < FrameLog.LABEL_UNKNOWN || label > FrameLog.LABEL_MOTION) throw new IllegalArgumentException("Unknown label " + label);
+
+        out.writeInt(FrameLog.RECORD_HEADER + size);
+        out.writeInt(format);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeLong(timestamp);
+        out.writeByte(label);
+    }
+
+    /**
+     * Number of frames written so far.
+     *
+     * @return int frames.
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * Size of the log so far, including what is still buffered.
+     *
+     * @return long bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Stream that encoded frames are written into and published from, without
+ * a copy: the buffer written so far goes to the {@link FrameHub} as it is
+ * and the stream carries on in a spare one. As the stream is also the hub's
+ * {@link SharedFrame.Recycler}, buffers come back once no consumer holds
+ * their frame, so after the first few frames publishing allocates nothing.
+ *
+ * Writing and publishing belong to one thread, recycling may happen on any.
+ */
+public class FrameOutputStream extends ByteArrayOutputStream implements SharedFrame.Recycler {
+
+    /** Most buffers kept for reuse. */
+    public static final int SPARES = 4;
+
+    private final ArrayDeque<byte[]> spares = new ArrayDeque<byte[]>(SPARES);
+
+    /**
+     * @param size
+     *            Initial size of the buffers, grown as frames need it.
+     */
+    public FrameOutputStream(int size) {
+        super(size);
+    }
+
+    /**
+     * Publish what was written since the last reset as the newest frame of a
+     * hub, and start over on a spare buffer.
+     * 
+     * @param hub
+     *            Hub made with this stream as its recycler.
+     * @param timestamp
+     *            Time the frame was captured.
+     * @return long sequence number of the frame.
+     */
+    public synchronized long publishTo(FrameHub hub, long timestamp) {
+        final byte[] data = buf;
+        final int length = count;
+        byte[] spare;
+        synchronized (spares) {
+            spare = spares.poll();
+        }
+        buf = spare != null ? spare : new byte[data.length];
+        count = 0;
+        return hub.publish(data, length, timestamp);
+    }
+
+    /**
+     * Keep the buffer of a frame nobody holds any more, up to {@link #SPARES}.
+     */
+    @Override
+    public void recycle(SharedFrame frame) {
+        synchronized (spares) {
+            if (spares.size() < SPARES) spares.push(frame.getData());
+        }
+    }
+
+    /**
+     * Buffers waiting to be written into.
+     * 
+     * @return int number of spare buffers.
+     */
+    public int getSpares() {
+        synchronized (spares) {
+            return spares.size();
+        }
+    }
+}
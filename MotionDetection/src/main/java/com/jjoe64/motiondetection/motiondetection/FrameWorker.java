@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * A pipeline stage with its own thread and a mailbox of one frame. A frame
+ * offered while the thread is busy waits in the mailbox, and a newer one
+ * replaces it, so the stage always works on the latest frame and never queues
+ * behind itself. Replaced frames, and any left over when the stage stops, go
+ * to {@link Handler#drop(Object)} so their buffers can be given back.
+ *
+ * @param <T>
+ *            Type of the frames.
+ */
+public class FrameWorker<T> {
+
+    /**
+     * Works on the frames of a stage. Both methods are responsible for the
+     * frame's buffers.
+     *
+     * @param <T>
+     *            Type of the frames.
+     */
+    public interface Handler<T> {
+
+        /**
+         * Called on the stage's thread. A runtime exception goes to
+         * {@link #fail(Object, RuntimeException)} and the thread goes on with
+         * the next frame. An Error ends the stage as {@link FrameWorker#stop()}
+         * would.
+         */
+        void handle(T frame);
+
+        /**
+         * Called on the stage's thread when handling a frame threw, so the
+         * owner can report it. Whatever handling did not give back of the
+         * frame's buffers is still to be given back.
+         */
+        void fail(T frame, RuntimeException e);
+
+        /** Called on whichever thread replaced or stopped the frame. */
+        void drop(T frame);
+    }
+
+    /** How long {@link #stop()} waits for a frame being handled. */
+    public static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    private final String name;
+    private final Handler<T> handler;
+    private Thread thread = null;
+    private T pending = null;
+    private boolean busy = false;
+    private long handled = 0;
+    private long dropped = 0;
+    private long failed = 0;
+
+    /**
+     * @param name
+     *            Name of the thread.
+     * @param handler
+     *            Handler of the frames.
+     */
+    public FrameWorker(String name, Handler<T> handler) {
+        if (handler == null) throw new NullPointerException();
+
+        this.name = name;
+        this.handler = handler;
+    }
+
+    /**
+     * Start the thread, if it is not running already.
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+
+        thread = new Thread(name) {
+            @Override
+            public void run() {
+                loop(this);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the thread and drop the frame waiting in the mailbox. A frame being
+     * handled is finished first, and waited for up to
+     * {@link #STOP_TIMEOUT_MILLIS}, so whatever the handler works with can be
+     * released once this returns true.
+     *
+     * @return True if the thread has ended, false if it was still handling a
+     *         frame when the wait timed out or was interrupted.
+     */
+    public boolean stop() {
+        final Thread stopped;
+        final T left;
+        synchronized (this) {
+            if (thread == null) return true;
+            stopped = thread;
+            stopped.interrupt();
+            thread = null;
+            left = pending;
+            pending = null;
+            if (left != null) dropped++;
+            notifyAll();
+        }
+        if (left != null) handler.drop(left);
+
+        // a handler stopping its own stage cannot wait for itself
+        if (stopped == Thread.currentThread()) return false;
+        try {
+            stopped.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !stopped.isAlive();
+    }
+
+    /**
+     * Hand a frame to the stage, replacing any frame still waiting.
+     * 
+     * @param frame
+     *            Frame to work on.
+     * @return True if the frame was taken, false if the stage is stopped and
+     *         the frame was dropped.
+     * @throws NullPointerException
+     *             if frame is NULL.
+     */
+    public boolean offer(T frame) {
+        if (frame == null) throw new NullPointerException();
+
+        final T replaced;
+        synchronized (this) {
+            if (thread == null) {
+                replaced = frame;
+            } else {
+                replaced = pending;
+                pending = frame;
+                notifyAll();
+            }
+            if (replaced != null) dropped++;
+        }
+        if (replaced != null) handler.drop(replaced);
+        return replaced != frame;
+    }
+
+    /**
+     * Whether the stage has nothing to do, so an offered frame would be
+     * started right away.
+     * 
+     * @return True if no frame is handled or waiting.
+     */
+    public synchronized boolean isIdle() {
+        return !busy && pending == null;
+    }
+
+    public synchronized long getHandled() {
+        return handled;
+    }
+
+    /**
+     * Frames replaced in the mailbox or left there when the stage stopped.
+     * 
+     * @return long number of dropped frames.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Frames whose handler threw.
+     * 
+     * @return long number of failed frames.
+     */
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    private void loop(Thread self) {
+        try {
+            work(self);
+        } finally {
+            // an Error ends the stage, later frames are dropped rather than left waiting
+            abandon(self);
+        }
+    }
+
+    private void work(Thread self) {
+        while (true) {
+            final T frame;
+            synchronized (this) {
+                while (pending == null && thread == self) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // stop() clears thread, checked above
+                    }
+                }
+                if (thread != self) return;
+                frame = pending;
+                pending = null;
+                busy = true;
+            }
+            boolean failure = false;
+            try {
+                handler.handle(frame);
+            } catch (RuntimeException e) {
+                // one bad frame must not end the stage for all those after it
+                failure = true;
+                handler.fail(frame, e);
+            } finally {
+                synchronized (this) {
+                    busy = false;
+                    handled++;
+                    if (failure) failed++;
+                }
+            }
+        }
+    }
+
+    private void abandon(Thread self) {
+        final T left;
+        synchronized (this) {
+            if (thread != self) return;
+            thread = null;
+            left = pending;
+            pending = null;
+            if (left != null) dropped++;
+            notifyAll();
+        }
+        if (left != null) handler.drop(left);
+    }
+}
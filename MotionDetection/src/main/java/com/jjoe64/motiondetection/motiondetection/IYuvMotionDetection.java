@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Motion detection straight from the Y plane of a YUV420SP frame, with the
+ * too dark check folded into the same pass.
+ */
+public interface IYuvMotionDetection {
+
+    /**
+     * Detect motion.
+     * 
+     * @param yuv420sp
+     *            Byte array holding a YUV420SP image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @return boolean True is there is motion. Always false when the frame is
+     *         too dark.
+     * @throws NullPointerException
+     *             if yuv420sp byte array is NULL.
+     */
+    boolean detect(byte[] yuv420sp, int width, int height);
+
+    /**
+     * Detect motion from a buffer, reading from its position without
+     * changing it.
+     * 
+     * @see #detect(byte[], int, int)
+     */
+    boolean detect(ByteBuffer yuv420sp, int width, int height);
+
+    /**
+     * Did the lighting of the whole last frame change without any motion
+     * left over once the change was taken out. Only reported when lighting
+     * compensation is on.
+     * 
+     * @return boolean True if the last frame was a lighting change.
+     */
+    boolean isLightingChange();
+
+    /**
+     * Zones that saw motion in the last frame.
+     * 
+     * @return int bit set of zones, as numbered by {@link MotionZones}, or 0
+     *         when no zones are set.
+     */
+    int getMotionZones();
+
+    /**
+     * Where motion was seen in the last frame. The region is reused for the
+     * next frame.
+     * 
+     * @return MotionRegion of the changed boxes, empty without motion.
+     */
+    MotionRegion getMotionRegion();
+
+    /**
+     * Paint the outline of every box that changed in the last frame, for
+     * debugging. Nothing is painted after a frame that was too dark.
+     * 
+     * @param data
+     *            ARGB image of the last frame's size, row by row.
+     * @throws NullPointerException
+     *             if data int array is NULL.
+     */
+    void paintDifferences(int[] data);
+
+    /**
+     * Was the last frame too dark to look for motion.
+     * 
+     * @return boolean True if the luma sum fell below the minimum.
+     */
+    boolean isTooDark();
+
+    /**
+     * Luma sum of the last frame.
+     * 
+     * @return long sum of the luma of every pixel.
+     */
+    long getLumaSum();
+}
@@ -16,14 +16,10 @@
 
 package com.jjoe64.motiondetection.motiondetection;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Color;
-import android.graphics.Matrix;
-
-import java.io.ByteArrayOutputStream;
-
-
+/**
+ * Pure Java image helpers for the motion engines. Helpers which need
+ * android.graphics live with the app in BitmapUtils.
+ */
 public abstract class ImageProcessing {
 
     public static final int A = 0;
@@ -35,7 +31,8 @@ public abstract class ImageProcessing {
     public static final int S = 1;
     public static final int L = 2;
 
-    static int[] hsl = null;
+    /** Opaque red as an ARGB pixel, the same as android.graphics.Color.RED. */
+    public static final int RED = 0xFFFF0000;
 
     private ImageProcessing() {
     }
@@ -106,7 +103,7 @@ public abstract class ImageProcessing {
     }
 
     /**
-     * Decode a YUV420SP image to Luma.
+     * Decode a YUV420SP image to Luma into a newly allocated array.
      * 
      * @param yuv420sp
      *            Byte array representing a YUV420SP image.
@@ -119,20 +116,41 @@ public abstract class ImageProcessing {
      *             if yuv420sp byte array is NULL.
      */
     public static int[] decodeYUV420SPtoLuma(byte[] yuv420sp, int width, int height) {
+        return decodeYUV420SPtoLuma(yuv420sp, width, height, null);
+    }
+
+    /**
+     * Decode a YUV420SP image to Luma into a caller owned array, so callers on
+     * different threads never share an output buffer.
+     * 
+     * @param yuv420sp
+     *            Byte array representing a YUV420SP image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @param luma
+     *            Array of width * height entries to decode into. A new one is
+     *            allocated if it is NULL or of a different size.
+     * @return Integer array representing the Luma image.
+     * @throws NullPointerException
+     *             if yuv420sp byte array is NULL.
+     */
+    public static int[] decodeYUV420SPtoLuma(byte[] yuv420sp, int width, int height, int[] luma) {
         if (yuv420sp == null) throw new NullPointerException();
 
         final int frameSize = width * height;
-        if(hsl == null)
-            hsl = new int[frameSize];
+        if (luma == null || luma.length != frameSize)
+            luma = new int[frameSize];
 
         for (int j = 0, yp = 0; j < height; j++) {
             for (int i = 0; i < width; i++, yp++) {
                 int y = (0xff & (yuv420sp[yp])) - 16;
                 if (y < 0) y = 0;
-                hsl[yp] = y;
+                luma[yp] = y;
             }
         }
-        return hsl;
+        return luma;
     }
 
     /**
@@ -180,102 +198,4 @@ public abstract class ImageProcessing {
         }
         return rgb;
     }
-
-    /**
-     * Convert an RGB image into a Bitmap.
-     * 
-     * @param rgb
-     *            Integer array representing an RGB image.
-     * @param width
-     *            Width of the image.
-     * @param height
-     *            Height of the image.
-     * @return Bitmap of the RGB image.
-     * @throws NullPointerException
-     *             if RGB integer array is NULL.
-     */
-    public static Bitmap rgbToBitmap(int[] rgb, int width, int height) {
-        if (rgb == null) throw new NullPointerException();
-
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-        bitmap.setPixels(rgb, 0, width, 0, 0, width, height);
-        return bitmap;
-    }
-
-    /**
-     * Convert an Luma image into Greyscale.
-     * 
-     * @param lum
-     *            Integer array representing an Luma image.
-     * @param width
-     *            Width of the image.
-     * @param height
-     *            Height of the image.
-     * @return Bitmap of the Luma image.
-     * @throws NullPointerException
-     *             if RGB integer array is NULL.
-     */
-    public static Bitmap lumaToGreyscale(int[] lum, int width, int height) {
-        if (lum == null) throw new NullPointerException();
-
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-        for (int y = 0, xy = 0; y < bitmap.getHeight(); y++) {
-            for (int x = 0; x < bitmap.getWidth(); x++, xy++) {
-                int luma = lum[xy];
-                bitmap.setPixel(x, y, Color.argb(1, luma, luma, luma));
-            }
-        }
-        return bitmap;
-    }
-
-    /**
-     * Rotate the given Bitmap by the given degrees.
-     * 
-     * @param bmp
-     *            Bitmap to rotate.
-     * @param degrees
-     *            Degrees to rotate.
-     * @return Bitmap which was rotated.
-     */
-    public static Bitmap rotate(Bitmap bmp, int degrees) {
-        if (bmp == null) throw new NullPointerException();
-
-        // getting scales of the image
-        int width = bmp.getWidth();
-        int height = bmp.getHeight();
-
-        // Creating a Matrix and rotating it to 90 degrees
-        Matrix matrix = new Matrix();
-        matrix.postRotate(degrees);
-
-        // Getting the rotated Bitmap
-        Bitmap rotatedBmp = Bitmap.createBitmap(bmp, 0, 0, width, height, matrix, true);
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        rotatedBmp.compress(Bitmap.CompressFormat.JPEG, 100, stream);
-        return rotatedBmp;
-    }
-
-    /**
-     * Rotate the given image in byte array format by the given degrees.
-     * 
-     * @param data
-     *            Bitmap to rotate in byte array form.
-     * @param degrees
-     *            Degrees to rotate.
-     * @return Byte array format of an image which was rotated.
-     */
-    public static byte[] rotate(byte[] data, int degrees) {
-        if (data == null) throw new NullPointerException();
-
-        // Convert the byte data into a Bitmap
-        Bitmap bmp = BitmapFactory.decodeByteArray(data, 0, data.length);
-
-        // Getting the rotated Bitmap
-        Bitmap rotatedBmp = rotate(bmp, degrees);
-
-        // Get the byte array from the Bitmap
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        rotatedBmp.compress(Bitmap.CompressFormat.JPEG, 100, stream);
-        return stream.toByteArray();
-    }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Summed-area table of a luma map. Each entry holds the sum of every value
+ * above and to the left of it, so the sum of any rectangle takes four lookups
+ * no matter how large the rectangle is.
+ *
+ * The table is (width + 1) x (height + 1) with a zero first row and column.
+ * Sums are kept in an int, which holds any luma map up to about eight million
+ * pixels.
+ */
+public class IntegralImage {
+
+    private int[] table = null;
+    private int width;
+    private int height;
+
+    public IntegralImage() {
+    }
+
+    /**
+     * Allocate the table up front so {@link #update(int[], int, int)} never
+     * has to for an image of these dimensions.
+     */
+    public IntegralImage(int width, int height) {
+        this.table = new int[(width + 1) * (height + 1)];
+        this.width = width;
+        this.height = height;
+    }
+
+    public IntegralImage(int[] data, int width, int height) {
+        update(data, width, height);
+    }
+
+    /**
+     * Rebuild the table from a luma map in a single pass. The backing array is
+     * only reallocated when the dimensions change.
+     *
+     * @param data
+     *            Integer array representing a luma image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @throws NullPointerException
+     *             if data integer array is NULL.
+     */
+    public void update(int[] data, int width, int height) {
+        if (data == null) throw new NullPointerException();
+
+        if (table == null || this.width != width || this.height != height) {
+            table = new int[(width + 1) * (height + 1)];
+            this.width = width;
+            this.height = height;
+        }
+
+        final int stride = width + 1;
+        for (int y = 0, xy = 0; y < height; y++) {
+            int above = (y * stride) + 1;
+            int row = above + stride;
+            int rowSum = 0;
+            for (int x = 0; x < width; x++, xy++) {
+                rowSum += data[xy];
+                table[row + x] = table[above + x] + rowSum;
+            }
+        }
+    }
+
+    /**
+     * Rebuild the luma map the table was last built from, which the table
+     * holds in full: each value is its one pixel rectangle.
+     *
+     * @param out
+     *            Array of at least width * height entries.
+     * @return out
+     * @throws NullPointerException
+     *             if out is NULL.
+     */
+    public int[] restore(int[] out) {
+        if (out == null) throw new NullPointerException();
+        if (out.length < width * height) throw new IllegalArgumentException("Array smaller than the image");
+
+        final int stride = width + 1;
+        for (int y = 0, xy = 0; y < height; y++) {
+            final int above = y * stride;
+            final int row = above + stride;
+            for (int x = 0; x < width; x++, xy++) {
+                out[xy] = table[row + x + 1] - table[row + x] - table[above + x + 1] + table[above + x];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Sum of the rectangle with its top left corner at x, y.
+     *
+     * @param x
+     *            Left edge of the rectangle.
+     * @param y
+     *            Top edge of the rectangle.
+     * @param w
+     *            Width of the rectangle.
+     * @param h
+     *            Height of the rectangle.
+     * @return int sum of every value inside the rectangle.
+     */
+    public int getSum(int x, int y, int w, int h) {
+        final int stride = width + 1;
+        int top = (y * stride) + x;
+        int bottom = ((y + h) * stride) + x;
+        return table[bottom + w] - table[bottom] - table[top + w] + table[top];
+    }
+
+    /**
+     * Mean of the rectangle with its top left corner at x, y.
+     *
+     * @return int mean of every value inside the rectangle.
+     */
+    public int getMean(int x, int y, int w, int h) {
+        return getSum(x, y, w, h) / (w * h);
+    }
+
+    /**
+     * Get the width of the image the table was built from.
+     *
+     * @return integer representing the width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the image the table was built from.
+     *
+     * @return integer representing the height.
+     */
+    public int getHeight() {
+        return height;
+    }
+}
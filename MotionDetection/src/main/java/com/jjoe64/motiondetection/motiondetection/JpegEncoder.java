@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Baseline JPEG encoder in plain Java, working straight from the planes of
+ * an NV21 frame: Y, Cb and Cr are read as they are, with 4:2:0 sampling like
+ * the camera's, so there is no colour conversion and no RGB copy of the
+ * frame. It writes JFIF with the standard quantisation and Huffman tables,
+ * like YuvImage does, and passes the camera's YUV through unchanged.
+ *
+ * It stands in where no platform encoder is available and runs the same on
+ * a desktop JVM, so the MJPEG path can be measured and checked off the
+ * device. Buffers are kept between frames, so an encoder must be confined to
+ * one thread.
+ */
+public class JpegEncoder implements FrameEncoder {
+
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    // Annex K quantisation tables, in natural order
+    private static final int[] LUMA_QUANT = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+    private static final int[] CHROMA_QUANT = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    // Annex K Huffman tables, code counts for lengths 1 to 16 then values
+    private static final int[] DC_LUMA_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_LUMA_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] DC_CHROMA_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMA_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] AC_LUMA_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private static final int[] AC_LUMA_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+    private static final int[] AC_CHROMA_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMA_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    // Codes and lengths by symbol, built once from the tables above
+    private static final int[][] DC_LUMA = huffman(DC_LUMA_BITS, DC_LUMA_VALUES);
+    private static final int[][] DC_CHROMA = huffman(DC_CHROMA_BITS, DC_CHROMA_VALUES);
+    private static final int[][] AC_LUMA = huffman(AC_LUMA_BITS, AC_LUMA_VALUES);
+    private static final int[][] AC_CHROMA = huffman(AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+    // Scale factors of the AAN DCT, folded into the quantisation divisors
+    private static final double[] AAN_SCALE = {
+            1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    private int quality = -1;
+    private final int[] lumaQuant = new int[64];
+    private final int[] chromaQuant = new int[64];
+    private final float[] lumaDivisors = new float[64];
+    private final float[] chromaDivisors = new float[64];
+
+    private final float[] block = new float[64];
+    private final int[] coefficients = new int[64];
+
+    private byte[] buffer = new byte[64 * 1024];
+    private int length;
+    private int bitBuffer;
+    private int bitCount;
+
+    private static int[][] huffman(int[] bits, int[] values) {
+        int[] codes = new int[256];
+        int[] lengths = new int[256];
+        int code = 0;
+        for (int length = 1, k = 0; length <= 16; length++) {
+            for (int i = 0; i < bits[length - 1]; i++, k++) {
+                codes[values[k]] = code++;
+                lengths[values[k]] = length;
+            }
+            code <<= 1;
+        }
+        return new int[][] {codes, lengths};
+    }
+
+    /**
+     * {@inheritDoc} Width and height must be even, as they are for camera
+     * frames.
+     */
+    @Override
+    public void encode(byte[] nv21, int width, int height, int quality, OutputStream out) throws IOException {
+        if (nv21 == null || out == null) throw new NullPointerException();
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) throw new IllegalArgumentException("Frame must have an even size: " + width + "x" + height);
+        if (nv21.length < width * height * 3 / 2) throw new IllegalArgumentException("Frame is smaller than " + width + "x" + height);
+
+        setQuality(quality);
+        length = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+        writeHeaders(width, height);
+
+        final int chromaWidth = width / 2;
+        final int chromaHeight = height / 2;
+        final int chromaOffset = width * height;
+        int yDc = 0;
+        int cbDc = 0;
+        int crDc = 0;
+        for (int my = 0; my < height; my += 16) {
+            for (int mx = 0; mx < width; mx += 16) {
+                ensure(4096);
+                yDc = encodeBlock(nv21, 0, width, height, 1, mx, my, yDc, lumaDivisors, DC_LUMA, AC_LUMA);
+                yDc = encodeBlock(nv21, 0, width, height, 1, mx + 8, my, yDc, lumaDivisors, DC_LUMA, AC_LUMA);
+                yDc = encodeBlock(nv21, 0, width, height, 1, mx, my + 8, yDc, lumaDivisors, DC_LUMA, AC_LUMA);
+                yDc = encodeBlock(nv21, 0, width, height, 1, mx + 8, my + 8, yDc, lumaDivisors, DC_LUMA, AC_LUMA);
+                // NV21 interleaves V then U, Cb is U
+                cbDc = encodeBlock(nv21, chromaOffset + 1, chromaWidth, chromaHeight, 2, mx / 2, my / 2, cbDc, chromaDivisors, DC_CHROMA, AC_CHROMA);
+                crDc = encodeBlock(nv21, chromaOffset, chromaWidth, chromaHeight, 2, mx / 2, my / 2, crDc, chromaDivisors, DC_CHROMA, AC_CHROMA);
+            }
+        }
+
+        // pad the last byte with ones
+        if (bitCount > 0) writeBits(0x7f, 7);
+        ensure(2);
+        buffer[length++] = (byte) 0xff;
+        buffer[length++] = (byte) 0xd9;
+        out.write(buffer, 0, length);
+    }
+
+    private void setQuality(int quality) {
+        quality = Math.max(1, Math.min(100, quality));
+        if (quality == this.quality) return;
+        this.quality = quality;
+
+        // libjpeg's scaling of the Annex K tables
+        final int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        for (int i = 0; i < 64; i++) {
+            lumaQuant[i] = Math.max(1, Math.min(255, (LUMA_QUANT[i] * scale + 50) / 100));
+            chromaQuant[i] = Math.max(1, Math.min(255, (CHROMA_QUANT[i] * scale + 50) / 100));
+            final double aan = AAN_SCALE[i >> 3] * AAN_SCALE[i & 7] * 8.0;
+            lumaDivisors[i] = (float) (1.0 / (lumaQuant[i] * aan));
+            chromaDivisors[i] = (float) (1.0 / (chromaQuant[i] * aan));
+        }
+    }
+
+    /**
+     * Transform, quantise and entropy code one 8x8 block of a plane, with the
+     * edge pixels repeated past the right and bottom of the frame.
+     *
+     * @return int DC value of the block, to predict the next one from.
+     */
+    private int encodeBlock(byte[] plane, int offset, int width, int height, int sample, int left, int top,
+                            int previousDc, float[] divisors, int[][] dcTable, int[][] acTable) {
+        final float[] data = block;
+        final int stride = width * sample;
+        if (left + 8 <= width && top + 8 <= height) {
+            for (int y = 0, i = 0; y < 8; y++) {
+                int p = offset + (top + y) * stride + left * sample;
+                for (int x = 0; x < 8; x++, i++, p += sample) {
+                    data[i] = (plane[p] & 0xff) - 128;
+                }
+            }
+        } else {
+            for (int y = 0, i = 0; y < 8; y++) {
+                int row = offset + Math.min(top + y, height - 1) * stride;
+                for (int x = 0; x < 8; x++, i++) {
+                    data[i] = (plane[row + Math.min(left + x, width - 1) * sample] & 0xff) - 128;
+                }
+            }
+        }
+
+        forwardDct(data);
+        for (int i = 0; i < 64; i++) {
+            final int z = ZIGZAG[i];
+            final float v = data[z] * divisors[z];
+            coefficients[i] = v > 0 ? (int) (v + 0.5f) : (int) (v - 0.5f);
+        }
+
+        final int dc = coefficients[0];
+        final int diff = dc - previousDc;
+        final int dcBits = bitLength(diff);
+        writeBits(dcTable[0][dcBits], dcTable[1][dcBits]);
+        if (dcBits > 0) writeBits(diff < 0 ? diff - 1 : diff, dcBits);
+
+        int run = 0;
+        for (int i = 1; i < 64; i++) {
+            final int ac = coefficients[i];
+            if (ac == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                writeBits(acTable[0][0xf0], acTable[1][0xf0]);
+                run -= 16;
+            }
+            final int acBits = bitLength(ac);
+            final int symbol = (run << 4) | acBits;
+            writeBits(acTable[0][symbol], acTable[1][symbol]);
+            writeBits(ac < 0 ? ac - 1 : ac, acBits);
+            run = 0;
+        }
+        if (run > 0) writeBits(acTable[0][0], acTable[1][0]);
+        return dc;
+    }
+
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value < 0 ? -value : value);
+    }
+
+    /**
+     * Separable AAN forward DCT in floating point, output scaled by the
+     * factors folded into the divisors.
+     */
+    private static void forwardDct(float[] data) {
+        for (int i = 0; i < 64; i += 8) {
+            dct(data, i, 1);
+        }
+        for (int i = 0; i < 8; i++) {
+            dct(data, i, 8);
+        }
+    }
+
+    private static void dct(float[] d, int o, int s) {
+        final float tmp0 = d[o] + d[o + 7 * s];
+        final float tmp7 = d[o] - d[o + 7 * s];
+        final float tmp1 = d[o + s] + d[o + 6 * s];
+        final float tmp6 = d[o + s] - d[o + 6 * s];
+        final float tmp2 = d[o + 2 * s] + d[o + 5 * s];
+        final float tmp5 = d[o + 2 * s] - d[o + 5 * s];
+        final float tmp3 = d[o + 3 * s] + d[o + 4 * s];
+        final float tmp4 = d[o + 3 * s] - d[o + 4 * s];
+
+        // even part
+        float tmp10 = tmp0 + tmp3;
+        final float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+
+        d[o] = tmp10 + tmp11;
+        d[o + 4 * s] = tmp10 - tmp11;
+        final float z1 = (tmp12 + tmp13) * 0.707106781f;
+        d[o + 2 * s] = tmp13 + z1;
+        d[o + 6 * s] = tmp13 - z1;
+
+        // odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+        final float z5 = (tmp10 - tmp12) * 0.382683433f;
+        final float z2 = 0.541196100f * tmp10 + z5;
+        final float z4 = 1.306562965f * tmp12 + z5;
+        final float z3 = tmp11 * 0.707106781f;
+        final float z11 = tmp7 + z3;
+        final float z13 = tmp7 - z3;
+
+        d[o + 5 * s] = z13 + z2;
+        d[o + 3 * s] = z13 - z2;
+        d[o + s] = z11 + z4;
+        d[o + 7 * s] = z11 - z4;
+    }
+
+    private void writeBits(int value, int bits) {
+        bitBuffer = (bitBuffer << bits) | (value & ((1 << bits) - 1));
+        bitCount += bits;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            final int b = (bitBuffer >> bitCount) & 0xff;
+            buffer[length++] = (byte) b;
+            // a 0xff in the entropy data is followed by a stuffed zero
+            if (b == 0xff) buffer[length++] = 0;
+        }
+    }
+
+    private void writeHeaders(int width, int height) {
+        ensure(1024);
+        // SOI and JFIF APP0
+        writeShort(0xffd8);
+        writeShort(0xffe0);
+        writeShort(16);
+        buffer[length++] = 'J';
+        buffer[length++] = 'F';
+        buffer[length++] = 'I';
+        buffer[length++] = 'F';
+        buffer[length++] = 0;
+        writeShort(0x0101);
+        buffer[length++] = 0;
+        writeShort(1);
+        writeShort(1);
+        writeShort(0);
+
+        // DQT, both tables in zigzag order
+        writeShort(0xffdb);
+        writeShort(2 + 2 * 65);
+        buffer[length++] = 0;
+        for (int i = 0; i < 64; i++) buffer[length++] = (byte) lumaQuant[ZIGZAG[i]];
+        buffer[length++] = 1;
+        for (int i = 0; i < 64; i++) buffer[length++] = (byte) chromaQuant[ZIGZAG[i]];
+
+        // SOF0, Y sampled 2x2, Cb and Cr 1x1
+        writeShort(0xffc0);
+        writeShort(17);
+        buffer[length++] = 8;
+        writeShort(height);
+        writeShort(width);
+        buffer[length++] = 3;
+        buffer[length++] = 1;
+        buffer[length++] = 0x22;
+        buffer[length++] = 0;
+        buffer[length++] = 2;
+        buffer[length++] = 0x11;
+        buffer[length++] = 1;
+        buffer[length++] = 3;
+        buffer[length++] = 0x11;
+        buffer[length++] = 1;
+
+        // DHT
+        writeShort(0xffc4);
+        writeShort(2 + 4 * 17 + DC_LUMA_VALUES.length + AC_LUMA_VALUES.length + DC_CHROMA_VALUES.length + AC_CHROMA_VALUES.length);
+        writeHuffmanTable(0x00, DC_LUMA_BITS, DC_LUMA_VALUES);
+        writeHuffmanTable(0x10, AC_LUMA_BITS, AC_LUMA_VALUES);
+        writeHuffmanTable(0x01, DC_CHROMA_BITS, DC_CHROMA_VALUES);
+        writeHuffmanTable(0x11, AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+        // SOS
+        writeShort(0xffda);
+        writeShort(12);
+        buffer[length++] = 3;
+        buffer[length++] = 1;
+        buffer[length++] = 0x00;
+        buffer[length++] = 2;
+        buffer[length++] = 0x11;
+        buffer[length++] = 3;
+        buffer[length++] = 0x11;
+        buffer[length++] = 0;
+        buffer[length++] = 63;
+        buffer[length++] = 0;
+    }
+
+    private void writeHuffmanTable(int id, int[] bits, int[] values) {
+        buffer[length++] = (byte) id;
+        for (int b : bits) buffer[length++] = (byte) b;
+        for (int v : values) buffer[length++] = (byte) v;
+    }
+
+    private void writeShort(int value) {
+        buffer[length++] = (byte) (value >> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    private void ensure(int bytes) {
+        if (length + bytes <= buffer.length) return;
+        byte[] grown = new byte[Math.max(buffer.length * 2, length + bytes)];
+        System.arraycopy(buffer, 0, grown, 0, length);
+        buffer = grown;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in microseconds, laid out like an HDR
+ * histogram: exact buckets below 32us, then 16 linear buckets per power of
+ * two, so every value is kept to within about 6% from microseconds up to
+ * hours. Recording is a handful of atomic increments and safe from any
+ * thread; reads are not a consistent snapshot while recording goes on, which
+ * is fine for monitoring.
+ */
+public class LatencyHistogram {
+
+    private static final int EXACT = 32;
+    private static final int SUB_BUCKETS = 16;
+    /** Largest power of two kept apart, about 38 hours in microseconds. */
+    private static final int MAX_EXPONENT = 37;
+    private static final int BUCKETS = EXACT + (MAX_EXPONENT - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int bucket(long value) {
+        if (value < EXACT) return (int) Math.max(0, value);
+        final int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(value));
+        final int shift = exponent - 4;
+        final int sub = (int) Math.min(SUB_BUCKETS * 2 - 1, value >>> shift) - SUB_BUCKETS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long highestValue(int bucket) {
+        if (bucket < EXACT) return bucket;
+        final int shift = (bucket - EXACT) / SUB_BUCKETS + 1;
+        final int sub = (bucket - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((long) (sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a latency.
+     * 
+     * @param micros
+     *            Latency in microseconds, negative values count as 0.
+     */
+    public void record(long micros) {
+        if (micros < 0) micros = 0;
+        counts.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Mean latency.
+     * 
+     * @return double mean in microseconds, 0 when nothing was recorded.
+     */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Latency below which a given share of the recorded values lies.
+     * 
+     * @param percentile
+     *            Share from 0 to 100.
+     * @return long upper bound of the bucket holding the percentile, in
+     *         microseconds, at most the largest value recorded, or 0 when
+     *         nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValue(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Forget everything recorded. Values recorded meanwhile may be partly
+     * kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Estimates how much the lighting of a whole frame moved between two sets of
+ * box means. A light switching on shifts every box by about the same amount,
+ * while something moving through the frame only shifts a few, so the median
+ * of the per box changes follows the lighting and ignores the movement as
+ * long as less than half the boxes move. Boxes outside a mask are left out
+ * of the median.
+ *
+ * The scratch space is kept between calls, so once a grid size has been seen
+ * nothing is allocated.
+ */
+public class LightingCompensation {
+
+    private int[] deltas = null;
+
+    /**
+     * Median change of the box means.
+     *
+     * @param current
+     *            Box means of the current frame.
+     * @param previous
+     *            Box means to compare against, on the same grid.
+     * @param count
+     *            Number of boxes to look at.
+     * @return int median of current[i] - previous[i], 0 if count is 0.
+     * @throws NullPointerException
+     *             if current or previous is NULL.
+     */
+    public int offset(int[] current, int[] previous, int count) {
+        return offset(current, previous, count, null);
+    }
+
+    /**
+     * Median change of the box means inside a mask.
+     *
+     * @param mask
+     *            Array of count entries, non zero for every box to look at,
+     *            or NULL for every box.
+     * @see #offset(int[], int[], int)
+     */
+    public int offset(int[] current, int[] previous, int count, int[] mask) {
+        if (current == null || previous == null) throw new NullPointerException();
+        if (count <= 0) return 0;
+
+        if (deltas == null || deltas.length < count) deltas = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (mask != null && mask[i] == 0) continue;
+            deltas[n++] = current[i] - previous[i];
+        }
+        if (n == 0) return 0;
+        return select(deltas, n, n / 2);
+    }
+
+    /**
+     * Quickselect the k-th smallest of the first count values, reordering
+     * them in place.
+     */
+    private static int select(int[] values, int count, int k) {
+        int left = 0;
+        int right = count - 1;
+        while (left < right) {
+            int pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    int swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Lets the cheap motion detector wake the expensive ones. Motion opens the
+ * gate for a window, every further motion keeps it open, and once the window
+ * has passed without motion the gate closes and the detectors behind it sit
+ * idle until the next motion.
+ *
+ * The time from the motion that opened the gate to the first detection of
+ * each detector is recorded as a {@link PipelineMetrics#FIRST_DETECTION}
+ * stage, the latency the gate costs over running the detector all the time.
+ */
+public class MotionGate {
+
+    private final long window;
+    private final Set<String> detected = new HashSet<String>();
+    private long onset = 0;
+    private long closes = 0;
+    private boolean open = false;
+    private long openings = 0;
+    private long openTime = 0;
+
+    /**
+     * @param windowMillis
+     *            How long the gate stays open after the last motion.
+     */
+    public MotionGate(long windowMillis) {
+        this.window = windowMillis * 1000000L;
+    }
+
+    /**
+     * Open the gate, or keep it open, for motion seen in a frame.
+     * 
+     * @param now
+     *            {@link System#nanoTime()} the frame was captured at.
+     */
+    public synchronized void motion(long now) {
+        if (!isOpen(now)) {
+            open = true;
+            onset = now;
+            openings++;
+            detected.clear();
+        }
+        closes = now + window;
+    }
+
+    /**
+     * Whether the detectors behind the gate should look at a frame.
+     * 
+     * @param now
+     *            {@link System#nanoTime()} of the frame.
+     * @return True while within the window of the last motion.
+     */
+    public synchronized boolean isOpen(long now) {
+        if (open && now - closes >= 0) {
+            open = false;
+            openTime += closes - onset;
+        }
+        return open;
+    }
+
+    /**
+     * Note a detection, recording the time since the gate opened if it is the
+     * first by that detector.
+     * 
+     * @param name
+     *            Name of the detector, such as face.
+     * @param now
+     *            {@link System#nanoTime()} of the detection.
+     */
+    public synchronized void detected(String name, long now) {
+        if (isOpen(now) && detected.add(name)) {
+            PipelineMetrics.stage(PipelineMetrics.FIRST_DETECTION + name).record(now - onset);
+        }
+    }
+
+    public long getWindowMillis() {
+        return window / 1000000L;
+    }
+
+    /**
+     * How often motion opened a closed gate.
+     * 
+     * @return long number of openings.
+     */
+    public synchronized long getOpenings() {
+        return openings;
+    }
+
+    /**
+     * Total time the gate was open, the time the gated detectors were
+     * allowed to run.
+     * 
+     * @param now
+     *            {@link System#nanoTime()} up to which to count.
+     * @return long nanoseconds open.
+     */
+    public synchronized long getOpenTime(long now) {
+        return isOpen(now) ? openTime + now - onset : openTime;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Where motion was seen in a frame: the bounding box of the changed boxes,
+ * their centroid weighted by how much each box changed, the fraction of the
+ * watched area that changed and the mean change of the changed boxes.
+ *
+ * A detector fills one instance as it compares boxes and reuses it for the
+ * next frame, so copy out anything that has to outlive the frame.
+ */
+public class MotionRegion {
+
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+    private int centroidX;
+    private int centroidY;
+    private float areaFraction;
+    private int magnitude;
+
+    private int changedBoxes;
+    private long changedArea;
+    private long diffSum;
+    private long weightSum;
+    private long weightedX;
+    private long weightedY;
+
+    /**
+     * Start a new frame with nothing changed.
+     */
+    public void reset() {
+        left = Integer.MAX_VALUE;
+        top = Integer.MAX_VALUE;
+        right = 0;
+        bottom = 0;
+        centroidX = 0;
+        centroidY = 0;
+        areaFraction = 0;
+        magnitude = 0;
+        changedBoxes = 0;
+        changedArea = 0;
+        diffSum = 0;
+        weightSum = 0;
+        weightedX = 0;
+        weightedY = 0;
+    }
+
+    /**
+     * Add a changed box.
+     *
+     * @param x
+     *            Left edge of the box.
+     * @param y
+     *            Top edge of the box.
+     * @param width
+     *            Width of the box.
+     * @param height
+     *            Height of the box.
+     * @param diff
+     *            How much the box changed.
+     */
+    public void add(int x, int y, int width, int height, int diff) {
+        if (x < left) left = x;
+        if (y < top) top = y;
+        if (x + width > right) right = x + width;
+        if (y + height > bottom) bottom = y + height;
+
+        long area = (long) width * height;
+        long weight = area * diff;
+        changedBoxes++;
+        changedArea += area;
+        diffSum += diff;
+        weightSum += weight;
+        // box centres doubled to stay in whole pixels
+        weightedX += weight * ((2L * x) + width);
+        weightedY += weight * ((2L * y) + height);
+    }
+
+    /**
+     * Add a changed box of a grid.
+     *
+     * @param grid
+     *            Grid the box belongs to.
+     * @param index
+     *            Box index, row by row.
+     * @param diff
+     *            How much the box changed.
+     */
+    public void add(BoxGrid grid, int index, int diff) {
+        int x = index % grid.getXBoxes();
+        int y = index / grid.getXBoxes();
+        add(grid.getLeft(x), grid.getTop(y), grid.getBoxWidth(x), grid.getBoxHeight(y), diff);
+    }
+
+    /**
+     * Work out the centroid, area fraction and magnitude once every changed
+     * box has been added.
+     *
+     * @param watchedArea
+     *            Number of pixels that were looked at.
+     */
+    public void finish(long watchedArea) {
+        if (changedBoxes == 0) {
+            reset();
+            return;
+        }
+        if (weightSum > 0) {
+            centroidX = (int) (weightedX / (2L * weightSum));
+            centroidY = (int) (weightedY / (2L * weightSum));
+        } else {
+            centroidX = (left + right) / 2;
+            centroidY = (top + bottom) / 2;
+        }
+        areaFraction = (watchedArea > 0) ? (float) changedArea / watchedArea : 0;
+        magnitude = (int) (diffSum / changedBoxes);
+    }
+
+    /**
+     * Did any box change.
+     *
+     * @return True if the region is empty.
+     */
+    public boolean isEmpty() {
+        return changedBoxes == 0;
+    }
+
+    public int getLeft() {
+        return isEmpty() ? 0 : left;
+    }
+
+    public int getTop() {
+        return isEmpty() ? 0 : top;
+    }
+
+    /**
+     * Right edge of the bounding box, exclusive.
+     */
+    public int getRight() {
+        return right;
+    }
+
+    /**
+     * Bottom edge of the bounding box, exclusive.
+     */
+    public int getBottom() {
+        return bottom;
+    }
+
+    public int getCentroidX() {
+        return centroidX;
+    }
+
+    public int getCentroidY() {
+        return centroidY;
+    }
+
+    /**
+     * Fraction of the watched area inside changed boxes.
+     *
+     * @return float from 0 to 1.
+     */
+    public float getAreaFraction() {
+        return areaFraction;
+    }
+
+    /**
+     * Mean change of the changed boxes, in luma values.
+     *
+     * @return int representing the magnitude.
+     */
+    public int getMagnitude() {
+        return magnitude;
+    }
+
+    public int getChangedBoxes() {
+        return changedBoxes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "MotionRegion[" + getLeft() + "," + getTop() + "," + right + "," + bottom
+                + " centroid=" + centroidX + "," + centroidY
+                + " area=" + areaFraction + " magnitude=" + magnitude + "]";
+    }
+}
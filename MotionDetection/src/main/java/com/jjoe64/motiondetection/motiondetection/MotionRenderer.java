@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.Arrays;
+
+/**
+ * Renders frames for debugging into one ARGB pixel array that is kept
+ * between frames, ready to be handed to a Bitmap in a single call. Luma is
+ * drawn as grey, and differences as the change of every pixel since the
+ * frame before, brightened so small changes show. Comparer and engine
+ * overlays can then be painted into the same array with their
+ * paintDifferences methods before it is drawn.
+ *
+ * A renderer is not thread-safe and must be confined to one thread.
+ */
+public class MotionRenderer {
+
+    /** Brightening of the difference map. */
+    public static final int DIFFERENCE_GAIN = 4;
+
+    private static final int[] GREY = new int[256];
+
+    static {
+        for (int i = 0; i < GREY.length; i++) {
+            GREY[i] = grey(Math.max(i - 16, 0));
+        }
+    }
+
+    private int[] pixels = null;
+    private byte[] previous = null;
+    private int previousWidth;
+    private int previousHeight;
+
+    private static int grey(int luma) {
+        return 0xff000000 | (luma << 16) | (luma << 8) | luma;
+    }
+
+    private int[] prepare(int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        if (pixels == null || pixels.length != width * height) pixels = new int[width * height];
+        return pixels;
+    }
+
+    /**
+     * Draw the Y plane of a YUV420SP frame as grey, with the same luma as
+     * {@link ImageProcessing#decodeYUV420SPtoLuma(byte[], int, int)}.
+     * 
+     * @param yuv420sp
+     *            Byte array holding a YUV420SP image or a Y plane.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @return Integer array of width * height ARGB pixels, reused by the next
+     *         call.
+     * @throws NullPointerException
+     *             if yuv420sp byte array is NULL.
+     */
+    public int[] renderLuma(byte[] yuv420sp, int width, int height) {
+        if (yuv420sp == null) throw new NullPointerException();
+
+        final int[] out = prepare(width, height);
+        if (yuv420sp.length < out.length) throw new IllegalArgumentException("Frame is smaller than " + width + "x" + height);
+        for (int i = 0; i < out.length; i++) {
+            out[i] = GREY[0xff & yuv420sp[i]];
+        }
+        return out;
+    }
+
+    /**
+     * Draw a luma image as grey.
+     * 
+     * @param luma
+     *            Integer array of luma values from 0 to 255.
+     * @see #renderLuma(byte[], int, int)
+     */
+    public int[] renderLuma(int[] luma, int width, int height) {
+        if (luma == null) throw new NullPointerException();
+
+        final int[] out = prepare(width, height);
+        if (luma.length < out.length) throw new IllegalArgumentException("Image is smaller than " + width + "x" + height);
+        for (int i = 0; i < out.length; i++) {
+            out[i] = grey(Math.min(Math.max(luma[i], 0), 255));
+        }
+        return out;
+    }
+
+    /**
+     * Draw how much every pixel of the Y plane changed since the frame passed
+     * to the previous call. The first frame, and the first after a change of
+     * size, comes out black.
+     * 
+     * @see #renderLuma(byte[], int, int)
+     */
+    public int[] renderDifference(byte[] yuv420sp, int width, int height) {
+        if (yuv420sp == null) throw new NullPointerException();
+
+        final int[] out = prepare(width, height);
+        final int size = out.length;
+        if (yuv420sp.length < size) throw new IllegalArgumentException("Frame is smaller than " + width + "x" + height);
+
+        if (previous == null || previous.length != size || previousWidth != width || previousHeight != height) {
+            previous = new byte[size];
+            System.arraycopy(yuv420sp, 0, previous, 0, size);
+            previousWidth = width;
+            previousHeight = height;
+            Arrays.fill(out, GREY[0]);
+            return out;
+        }
+
+        for (int i = 0; i < size; i++) {
+            final int current = 0xff & yuv420sp[i];
+            final int diff = Math.abs(current - (0xff & previous[i])) * DIFFERENCE_GAIN;
+            out[i] = grey(diff > 255 ? 255 : diff);
+            previous[i] = (byte) current;
+        }
+        return out;
+    }
+
+    /**
+     * Pixels of the last render.
+     * 
+     * @return Integer array of ARGB pixels, or NULL before the first render.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+}
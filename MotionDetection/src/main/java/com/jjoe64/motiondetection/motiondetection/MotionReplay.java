@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Replays a {@link FrameLog} through a motion engine set up the way the
+ * app's MotionDetector sets it up, and reports what it saw: detections, too
+ * dark and lighting change frames, false positives and misses against the
+ * labels in the log, and how long each frame took.
+ *
+ * Every pass starts from a fresh engine, so the same log and settings always
+ * give the same detections, and a capture from the field can be replayed
+ * after every change to the engines. Run it with
+ *
+ * <pre>
+ * ./gradlew :MotionDetection:replay -Pargs="--engine background --quiet capture.framelog"
+ * </pre>
+ */
+public class MotionReplay {
+
+    public static final int ENGINE_FRAME_DIFFERENCE = 0;
+    public static final int ENGINE_BACKGROUND = 1;
+
+    /** Frame results, as printed per frame. */
+    public static final char RESULT_NONE = '.';
+    public static final char RESULT_MOTION = 'M';
+    public static final char RESULT_TOO_DARK = 'D';
+    public static final char RESULT_LIGHTING_CHANGE = 'L';
+
+    // Defaults of the app's motion settings
+    private int mLeniency = 20;
+    private int mMinLuma = 1000;
+    private int mDecimation = 1;
+    private int mEngine = ENGINE_FRAME_DIFFERENCE;
+    private boolean mLightingCompensation = false;
+    private String mZones = null;
+    private boolean mUnlabelledQuiet = false;
+
+    private int mFrames = 0;
+    private int mDetections = 0;
+    private int mTooDark = 0;
+    private int mLightingChanges = 0;
+    private int mQuiet = 0;
+    private int mFalsePositives = 0;
+    private int mLabelledMotion = 0;
+    private int mMisses = 0;
+    private long[] mLatencies = new long[0];
+    private int mLatencyCount = 0;
+    private char[] mResults = new char[0];
+
+    public void setLeniency(int leniency) {
+        mLeniency = leniency;
+    }
+
+    public void setMinLuma(int minLuma) {
+        mMinLuma = minLuma;
+    }
+
+    public void setDecimation(int decimation) {
+        mDecimation = decimation;
+    }
+
+    /**
+     * @param engine
+     *            {@link #ENGINE_FRAME_DIFFERENCE} or {@link #ENGINE_BACKGROUND}.
+     */
+    public void setEngine(int engine) {
+        mEngine = engine;
+    }
+
+    public void setLightingCompensation(boolean compensate) {
+        mLightingCompensation = compensate;
+    }
+
+    /**
+     * @param zones
+     *            Zones on the 10x10 grid as parsed by {@link MotionZones}, or
+     *            NULL to watch the whole frame.
+     */
+    public void setZones(String zones) {
+        mZones = zones;
+    }
+
+    /**
+     * Count frames the log has no label for as quiet, for captures of an
+     * empty room.
+     */
+    public void setUnlabelledQuiet(boolean quiet) {
+        mUnlabelledQuiet = quiet;
+    }
+
+    /**
+     * Build an engine as the app does for the current settings.
+     *
+     * @return IYuvMotionDetection ready for the first frame.
+     * @throws IllegalArgumentException
+     *             if the zones cannot be parsed.
+     */
+    public IYuvMotionDetection createEngine() {
+        MotionZones zones = MotionZones.parse(mZones, 10, 10);
+        if (mEngine == ENGINE_BACKGROUND) {
+            BackgroundMotionDetection detection = new BackgroundMotionDetection();
+            detection.setLeniency(mLeniency);
+            detection.setMinLuma(mMinLuma);
+            detection.setDecimation(mDecimation);
+            detection.setLightingCompensation(mLightingCompensation);
+            detection.setZones(zones);
+            detection.setParallel(true);
+            return detection;
+        }
+        AggregateLumaMotionDetection detection = new AggregateLumaMotionDetection();
+        detection.setLeniency(mLeniency);
+        detection.setComparerMode(AggregateLumaMotionDetection.COMPARER_INTEGRAL);
+        detection.setMinLuma(mMinLuma);
+        detection.setDecimation(mDecimation);
+        detection.setLightingCompensation(mLightingCompensation);
+        detection.setZones(zones);
+        detection.setParallel(true);
+        return detection;
+    }
+
+    /**
+     * Replay the whole log once through a fresh engine, from its first
+     * record. Counts and latencies replace those of the last replay.
+     *
+     * @param reader
+     *            Log to replay.
+     * @param out
+     *            Stream for a line per frame, or NULL for none.
+     * @throws IOException
+     *             if the log is malformed.
+     */
+    public void replay(FrameLogReader reader, PrintStream out) throws IOException {
+        if (reader == null) throw new NullPointerException();
+
+        final IYuvMotionDetection detection = createEngine();
+        mFrames = mDetections = mTooDark = mLightingChanges = 0;
+        mQuiet = mFalsePositives = mLabelledMotion = mMisses = 0;
+        mLatencyCount = 0;
+
+        reader.rewind();
+        while (reader.next()) {
+            final long start = System.nanoTime();
+            final boolean detected = detection.detect(reader.getData(), reader.getWidth(), reader.getHeight());
+            final long latency = System.nanoTime() - start;
+
+            final char result;
+            if (detection.isTooDark()) {
+                result = RESULT_TOO_DARK;
+                mTooDark++;
+            } else if (detected) {
+                result = RESULT_MOTION;
+                mDetections++;
+            } else if (detection.isLightingChange()) {
+                result = RESULT_LIGHTING_CHANGE;
+                mLightingChanges++;
+            } else {
+                result = RESULT_NONE;
+            }
+
+            int label = reader.getLabel();
+            if (label == FrameLog.LABEL_UNKNOWN && mUnlabelledQuiet) label = FrameLog.LABEL_QUIET;
+            if (label == FrameLog.LABEL_QUIET) {
+                mQuiet++;
+                if (detected) mFalsePositives++;
+            } else if (label == FrameLog.LABEL_MOTION) {
+                mLabelledMotion++;
+                if (!detected) mMisses++;
+            }
+
+            if (mFrames == mResults.length) mResults = Arrays.copyOf(mResults, Math.max(256, mFrames * 2));
+            mResults[mFrames++] = result;
+            addLatency(latency);
+
+            if (out != null) {
+                out.printf(Locale.US, "%6d %13d %4dx%-4d %c %c %8.1fus%s%n", mFrames - 1, reader.getTimestamp(),
+                        reader.getWidth(), reader.getHeight(), label(label), result, latency / 1000.0,
+                        detected ? " " + describe(detection.getMotionRegion()) : "");
+            }
+        }
+    }
+
+    private void addLatency(long latency) {
+        if (mLatencyCount == mLatencies.length) mLatencies = Arrays.copyOf(mLatencies, Math.max(256, mLatencyCount * 2));
+        mLatencies[mLatencyCount++] = latency;
+    }
+
+    private static char label(int label) {
+        if (label == FrameLog.LABEL_QUIET) return 'q';
+        if (label == FrameLog.LABEL_MOTION) return 'm';
+        return '-';
+    }
+
+    private static String describe(MotionRegion region) {
+        return String.format(Locale.US, "box %d,%d-%d,%d area %.3f magnitude %d", region.getLeft(), region.getTop(),
+                region.getRight(), region.getBottom(), region.getAreaFraction(), region.getMagnitude());
+    }
+
+    public int getFrames() {
+        return mFrames;
+    }
+
+    public int getDetections() {
+        return mDetections;
+    }
+
+    public int getTooDark() {
+        return mTooDark;
+    }
+
+    public int getLightingChanges() {
+        return mLightingChanges;
+    }
+
+    public int getFalsePositives() {
+        return mFalsePositives;
+    }
+
+    public int getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * False positives over the frames labelled quiet.
+     *
+     * @return double between 0 and 1, 0 without quiet frames.
+     */
+    public double getFalsePositiveRate() {
+        return mQuiet == 0 ? 0 : (double) mFalsePositives / mQuiet;
+    }
+
+    /**
+     * Misses over the frames labelled with motion.
+     *
+     * @return double between 0 and 1, 0 without motion frames.
+     */
+    public double getMissRate() {
+        return mLabelledMotion == 0 ? 0 : (double) mMisses / mLabelledMotion;
+    }
+
+    /**
+     * Result of every frame of the last replay, one of the RESULT characters
+     * per frame, so two replays can be compared frame by frame.
+     *
+     * @return String of results.
+     */
+    public String getResults() {
+        return new String(mResults, 0, mFrames);
+    }
+
+    /**
+     * Latency of detect over the last replay.
+     *
+     * @param percentile
+     *            Between 0 and 100.
+     * @return long nanoseconds, 0 without frames.
+     */
+    public long getLatency(double percentile) {
+        if (mLatencyCount == 0) return 0;
+        long[] sorted = Arrays.copyOf(mLatencies, mLatencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * mLatencyCount) - 1;
+        return sorted[Math.max(0, Math.min(mLatencyCount - 1, index))];
+    }
+
+    public long getMeanLatency() {
+        if (mLatencyCount == 0) return 0;
+        long total = 0;
+        for (int i = 0; i < mLatencyCount; i++) {
+            total += mLatencies[i];
+        }
+        return total / mLatencyCount;
+    }
+
+    /**
+     * Print a summary of the last replay.
+     */
+    public void report(PrintStream out) {
+        out.printf(Locale.US, "frames          %d%n", mFrames);
+        out.printf(Locale.US, "motion          %d%n", mDetections);
+        out.printf(Locale.US, "too dark        %d%n", mTooDark);
+        out.printf(Locale.US, "lighting change %d%n", mLightingChanges);
+        out.printf(Locale.US, "false positives %d of %d quiet (%.2f%%)%n", mFalsePositives, mQuiet, 100 * getFalsePositiveRate());
+        out.printf(Locale.US, "misses          %d of %d motion (%.2f%%)%n", mMisses, mLabelledMotion, 100 * getMissRate());
+        out.printf(Locale.US, "latency us      mean %.1f p50 %.1f p90 %.1f p99 %.1f max %.1f%n",
+                getMeanLatency() / 1000.0, getLatency(50) / 1000.0, getLatency(90) / 1000.0,
+                getLatency(99) / 1000.0, getLatency(100) / 1000.0);
+    }
+
+    private static void usage() {
+        System.err.println("usage: MotionReplay [options] <frame log>");
+        System.err.println("  --engine frame|background  motion engine (frame)");
+        System.err.println("  --leniency <n>             box difference to count as motion (20)");
+        System.err.println("  --min-luma <n>             luma sum below which a frame is too dark (1000)");
+        System.err.println("  --decimation <n>           read every n-th pixel of every n-th row (1)");
+        System.err.println("  --lighting                 report lighting changes instead of motion");
+        System.err.println("  --zones <zones>            only watch these zones, e.g. door:0-4,10-14");
+        System.err.println("  --quiet                    count unlabelled frames as quiet");
+        System.err.println("  --warmup <n>               passes to run before measuring (0)");
+        System.err.println("  --passes <n>               measured passes, the last is reported (1)");
+        System.err.println("  --verbose                  print a line per frame");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException {
+        MotionReplay replay = new MotionReplay();
+        int warmup = 0;
+        int passes = 1;
+        boolean verbose = false;
+        File log = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--engine".equals(arg) && i + 1 < args.length) {
+                    String engine = args[++i];
+                    if ("background".equals(engine)) replay.setEngine(ENGINE_BACKGROUND);
+                    else if ("frame".equals(engine)) replay.setEngine(ENGINE_FRAME_DIFFERENCE);
+                    else usage();
+                } else if ("--leniency".equals(arg) && i + 1 < args.length) {
+                    replay.setLeniency(Integer.parseInt(args[++i]));
+                } else if ("--min-luma".equals(arg) && i + 1 < args.length) {
+                    replay.setMinLuma(Integer.parseInt(args[++i]));
+                } else if ("--decimation".equals(arg) && i + 1 < args.length) {
+                    replay.setDecimation(Integer.parseInt(args[++i]));
+                } else if ("--lighting".equals(arg)) {
+                    replay.setLightingCompensation(true);
+                } else if ("--zones".equals(arg) && i + 1 < args.length) {
+                    replay.setZones(args[++i]);
+                } else if ("--quiet".equals(arg)) {
+                    replay.setUnlabelledQuiet(true);
+                } else if ("--warmup".equals(arg) && i + 1 < args.length) {
+                    warmup = Integer.parseInt(args[++i]);
+                } else if ("--passes".equals(arg) && i + 1 < args.length) {
+                    passes = Math.max(1, Integer.parseInt(args[++i]));
+                } else if ("--verbose".equals(arg)) {
+                    verbose = true;
+                } else if (!arg.startsWith("--") && log == null) {
+                    log = new File(arg);
+                } else {
+                    usage();
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if (log == null) usage();
+
+        FrameLogReader reader = new FrameLogReader(log);
+        try {
+            for (int i = 0; i < warmup; i++) {
+                replay.replay(reader, null);
+            }
+            String results = null;
+            for (int i = 0; i < passes; i++) {
+                replay.replay(reader, verbose && i == passes - 1 ? System.out : null);
+                if (results != null && !results.equals(replay.getResults())) {
+                    System.err.println("Pass " + i + " detected differently from the pass before it");
+                }
+                results = replay.getResults();
+            }
+            replay.report(System.out);
+        } finally {
+            reader.close();
+        }
+    }
+}
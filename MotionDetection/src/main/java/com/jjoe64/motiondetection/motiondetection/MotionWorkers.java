@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of daemon threads shared by every detector that aggregates
+ * frames in stripes. The thread feeding a detector works on one stripe
+ * itself, so the pool has one thread less than there are cores, and at most
+ * {@link #MAX_WORKERS}.
+ */
+public final class MotionWorkers {
+
+    /** Most threads the pool will start. */
+    public static final int MAX_WORKERS = 7;
+
+    /**
+     * Sampled pixels below which a frame is aggregated on the calling thread.
+     * Roughly half a 1280x720 frame, so 640x480 and decimated frames stay on
+     * a single thread.
+     */
+    public static final int DEFAULT_THRESHOLD = 500000;
+
+    /**
+     * Stripes that can wait for a worker. The queue is an array, so queueing
+     * a stripe allocates nothing, and a stripe that finds it full runs on
+     * the thread that brought it.
+     */
+    static final int QUEUE_SIZE = 256;
+
+    private static ExecutorService executor = null;
+
+    private MotionWorkers() {
+    }
+
+    /**
+     * Number of stripes to split a frame into: the workers plus the calling
+     * thread.
+     *
+     * @return int representing the number of stripes, 1 on a single core.
+     */
+    public static int getStripes() {
+        return getWorkers() + 1;
+    }
+
+    private static int getWorkers() {
+        return Math.max(0, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * The shared pool, started on first use.
+     *
+     * @return ExecutorService of the workers, or NULL on a single core.
+     */
+    public static synchronized ExecutorService get() {
+        if (executor == null && getWorkers() > 0) {
+            executor = newPool(getWorkers());
+        }
+        return executor;
+    }
+
+    /**
+     * A pool like the shared one, with a given number of threads.
+     */
+    static ExecutorService newPool(int workers) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "motion-worker-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Named regions of interest made up of comparison boxes. Every box carries a
+ * bit set of the zones it belongs to, so a single pass over the boxes tells
+ * which zones saw motion, and boxes outside every zone can be skipped.
+ *
+ * Zones are written as name:boxes pairs separated by semicolons, where boxes
+ * is a comma separated list of box numbers or first-last ranges. Boxes are
+ * numbered row by row from the top left, so on the default 10x10 grid box 0
+ * is the top left corner, 9 the top right and 99 the bottom right, e.g.
+ * "door:0-4,10-14;hall:45-49". A box may belong to several zones. Names may
+ * hold letters, digits, '_' and '-' so they can be used in topics.
+ */
+public class MotionZones {
+
+    /** Most zones a mask can hold, one per bit. */
+    public static final int MAX_ZONES = 32;
+
+    private final int xBoxes;
+    private final int yBoxes;
+    private final List<String> names;
+    private final int[] masks;
+
+    private MotionZones(int xBoxes, int yBoxes, List<String> names, int[] masks) {
+        this.xBoxes = xBoxes;
+        this.yBoxes = yBoxes;
+        this.names = names;
+        this.masks = masks;
+    }
+
+    /**
+     * Parse zones for a grid of the given size.
+     *
+     * @param zones
+     *            Zones as name:boxes pairs.
+     * @param xBoxes
+     *            Number of boxes across the image.
+     * @param yBoxes
+     *            Number of boxes down the image.
+     * @return MotionZones, or NULL if zones is NULL or blank.
+     * @throws IllegalArgumentException
+     *             if a zone is malformed or refers to a box outside the grid.
+     */
+    public static MotionZones parse(String zones, int xBoxes, int yBoxes) {
+        if (zones == null || zones.trim().length() == 0) return null;
+        if (xBoxes <= 0 || yBoxes <= 0) throw new IllegalArgumentException();
+
+        final int count = xBoxes * yBoxes;
+        List<String> names = new ArrayList<String>();
+        int[] masks = new int[count];
+        for (String zone : zones.split(";")) {
+            zone = zone.trim();
+            if (zone.length() == 0) continue;
+
+            int colon = zone.indexOf(':');
+            if (colon <= 0) throw new IllegalArgumentException("Zone needs a name: " + zone);
+            String name = zone.substring(0, colon).trim();
+            if (!name.matches("[A-Za-z0-9_-]+")) throw new IllegalArgumentException("Invalid zone name: " + name);
+            if (names.contains(name)) throw new IllegalArgumentException("Duplicate zone: " + name);
+            if (names.size() == MAX_ZONES) throw new IllegalArgumentException("More than " + MAX_ZONES + " zones");
+
+            final int bit = 1 << names.size();
+            names.add(name);
+            boolean empty = true;
+            for (String boxes : zone.substring(colon + 1).split(",")) {
+                boxes = boxes.trim();
+                if (boxes.length() == 0) continue;
+                int dash = boxes.indexOf('-');
+                int first = parseBox(dash < 0 ? boxes : boxes.substring(0, dash), count);
+                int last = dash < 0 ? first : parseBox(boxes.substring(dash + 1), count);
+                if (last < first) throw new IllegalArgumentException("Invalid box range: " + boxes);
+                for (int i = first; i <= last; i++) {
+                    masks[i] |= bit;
+                }
+                empty = false;
+            }
+            if (empty) throw new IllegalArgumentException("Zone has no boxes: " + name);
+        }
+        if (names.isEmpty()) return null;
+        return new MotionZones(xBoxes, yBoxes, names, masks);
+    }
+
+    private static int parseBox(String box, int count) {
+        int index;
+        try {
+            index = Integer.parseInt(box.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid box: " + box);
+        }
+        if (index < 0 || index >= count) throw new IllegalArgumentException("Box outside the grid: " + index);
+        return index;
+    }
+
+    /**
+     * Fill out with the zone bits of every box of a grid. Edge boxes the grid
+     * adds beyond the zone layout belong to no zone.
+     *
+     * @param grid
+     *            Grid laid out with the same box counts as the zones.
+     * @param out
+     *            Array of at least {@link BoxGrid#getBoxCount()} entries.
+     */
+    public void masks(BoxGrid grid, int[] out) {
+        if (grid == null || out == null) throw new NullPointerException();
+
+        for (int y = 0, i = 0; y < grid.getYBoxes(); y++) {
+            for (int x = 0; x < grid.getXBoxes(); x++, i++) {
+                out[i] = (x < xBoxes && y < yBoxes) ? masks[(y * xBoxes) + x] : 0;
+            }
+        }
+    }
+
+    /**
+     * Number of zones.
+     *
+     * @return int representing the number of zones.
+     */
+    public int getZoneCount() {
+        return names.size();
+    }
+
+    /**
+     * Name of a zone.
+     *
+     * @param zone
+     *            Zone number, matching its bit in a zone mask.
+     * @return String name of the zone.
+     */
+    public String getName(int zone) {
+        return names.get(zone);
+    }
+
+    /**
+     * Names of the zones set in a zone mask.
+     *
+     * @param mask
+     *            Bit set of zones.
+     * @return List of zone names, in zone order.
+     */
+    public List<String> getNames(int mask) {
+        List<String> list = new ArrayList<String>();
+        for (int zone = 0; zone < names.size(); zone++) {
+            if ((mask & (1 << zone)) != 0) list.add(names.get(zone));
+        }
+        return list;
+    }
+
+    public int getXBoxes() {
+        return xBoxes;
+    }
+
+    public int getYBoxes() {
+        return yBoxes;
+    }
+}
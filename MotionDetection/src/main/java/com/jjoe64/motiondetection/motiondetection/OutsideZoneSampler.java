@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Box means of the boxes outside every zone, read coarsely and only for the
+ * lighting estimate. Zones keep motion detection to a few boxes, but the
+ * median change of a few boxes is whatever covers most of them, so with
+ * zones set the lighting is still estimated over the whole frame. Every
+ * step-th pixel of every step-th row is plenty for a box mean that only
+ * feeds a median.
+ */
+final class OutsideZoneSampler {
+
+    /** Decimation step of the coarse pass, unless detection itself reads more sparsely. */
+    static final int STEP = 8;
+
+    private final BoxAggregator aggregator;
+    private final int[] boxZones;
+    private final int[] means;
+
+    /**
+     * @param grid
+     *            Box layout of the frames.
+     * @param decimation
+     *            Decimation step of detection.
+     * @param boxZones
+     *            Zones of every box as laid out by {@link MotionZones}, kept
+     *            and read on every frame.
+     */
+    OutsideZoneSampler(BoxGrid grid, int decimation, int[] boxZones) {
+        this.boxZones = boxZones;
+        this.means = new int[grid.getBoxCount()];
+        final int[] outside = new int[grid.getBoxCount()];
+        for (int i = 0; i < outside.length; i++) {
+            outside[i] = boxZones[i] == 0 ? 1 : 0;
+        }
+        this.aggregator = new BoxAggregator(grid, Math.max(STEP, decimation));
+        this.aggregator.setMask(outside);
+    }
+
+    /**
+     * Read the boxes outside every zone and write their means into the box
+     * means of the frame, leaving the boxes inside a zone as they are.
+     */
+    void fill(byte[] yuv420sp, int offset, int[] boxMeans) {
+        aggregator.aggregate(yuv420sp, offset, means);
+        copy(boxMeans);
+    }
+
+    /**
+     * @see #fill(byte[], int, int[])
+     */
+    void fill(ByteBuffer yuv420sp, int[] boxMeans) {
+        aggregator.aggregate(yuv420sp, means);
+        copy(boxMeans);
+    }
+
+    private void copy(int[] boxMeans) {
+        for (int i = 0; i < means.length; i++) {
+            if (boxZones[i] == 0) boxMeans[i] = means[i];
+        }
+    }
+}
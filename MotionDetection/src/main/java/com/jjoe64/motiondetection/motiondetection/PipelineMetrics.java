@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and throughput of each stage a camera frame goes through, from
+ * capture to a JPEG on a stream socket or a motion event on MQTT. Stages are
+ * created on first use and shared by the whole process, like
+ * {@link MotionWorkers}, so any part of the pipeline can record into them
+ * without wiring and the HTTP API can read them all.
+ *
+ * Stage times come from {@link System#nanoTime()}: a stage either records a
+ * duration from a start time it took itself, or the age of a frame from the
+ * time stamped on it at capture.
+ */
+public final class PipelineMetrics {
+
+    /** Time between frames from the camera. */
+    public static final String CAPTURE = "capture";
+    /** Prefix of the stages timing a whole detector run, followed by its name. */
+    public static final String DETECTOR = "detector.";
+    /** Prefix of the stages timing the crop of a frame for a detector, followed by its name. */
+    public static final String CROP = "crop.";
+    /** Motion comparison of a frame. */
+    public static final String MOTION = "motion.detect";
+    /** Copy of a frame for the stream. */
+    public static final String STREAM_COPY = "stream.copy";
+    /** Time from capture until the encoder takes a stream frame. */
+    public static final String STREAM_WAIT = "stream.wait";
+    /** Quarter turn of a stream frame. */
+    public static final String ROTATE = "stream.rotate";
+    /** Conversion of a stream frame to RGB, only for frames the encoder cannot take. */
+    public static final String CONVERT = "stream.convert";
+    /** JPEG encoding of a stream frame. */
+    public static final String ENCODE = "stream.encode";
+    /** Writing a JPEG to one stream socket. */
+    public static final String SOCKET_WRITE = "mjpeg.write";
+    /** Age of a frame once a client has it, from capture. */
+    public static final String STREAM_LATENCY = "mjpeg.latency";
+    /** Handing one message to the MQTT client. */
+    public static final String MQTT_PUBLISH = "mqtt.publish";
+    /** Age of a frame once its motion event is published, from capture. */
+    public static final String MOTION_LATENCY = "motion.latency";
+    /** Prefix of the stages timing the first detection after motion woke a gated detector, followed by its name. */
+    public static final String FIRST_DETECTION = "cascade.first.";
+
+    /**
+     * Latency histogram and counter of one stage.
+     */
+    public static final class Stage {
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private volatile long since = System.nanoTime();
+
+        /**
+         * Record a pass through the stage.
+         * 
+         * @param nanos
+         *            Time the pass took in nanoseconds.
+         */
+        public void record(long nanos) {
+            histogram.record(nanos / 1000);
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        /**
+         * Throughput since the stage was created or reset.
+         * 
+         * @return double passes per second.
+         */
+        public double getRate() {
+            final long elapsed = System.nanoTime() - since;
+            return elapsed <= 0 ? 0 : histogram.getCount() * 1e9 / elapsed;
+        }
+
+        void reset() {
+            histogram.reset();
+            since = System.nanoTime();
+        }
+    }
+
+    private static final ConcurrentMap<String, Stage> stages = new ConcurrentHashMap<String, Stage>();
+    private static final AtomicLong lastFrame = new AtomicLong(-1);
+    private static final AtomicLong lastCapture = new AtomicLong();
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * A stage, created on first use.
+     * 
+     * @param name
+     *            Name of the stage, one of the constants or any other.
+     * @return Stage of that name.
+     */
+    public static Stage stage(String name) {
+        Stage stage = stages.get(name);
+        if (stage == null) {
+            final Stage created = new Stage();
+            stage = stages.putIfAbsent(name, created);
+            if (stage == null) stage = created;
+        }
+        return stage;
+    }
+
+    /**
+     * Record a pass through a stage that started at a given time.
+     * 
+     * @param name
+     *            Name of the stage.
+     * @param start
+     *            {@link System#nanoTime()} at the start of the pass.
+     */
+    public static void record(String name, long start) {
+        stage(name).record(System.nanoTime() - start);
+    }
+
+    /**
+     * Count a camera frame and record the time since the one before. Several
+     * detectors see the same frame, only the first to mark it counts.
+     * 
+     * @param frameId
+     *            Id of the frame, increasing from frame to frame.
+     * @return long {@link System#nanoTime()} the frame is stamped with.
+     */
+    public static long markCapture(long frameId) {
+        final long now = System.nanoTime();
+        final long last = lastFrame.get();
+        if (frameId != last && lastFrame.compareAndSet(last, frameId)) {
+            final long previous = lastCapture.getAndSet(now);
+            if (last >= 0 && previous != 0) stage(CAPTURE).record(now - previous);
+        }
+        return now;
+    }
+
+    /**
+     * All stages used so far.
+     * 
+     * @return Map of the stages by name, in name order.
+     */
+    public static Map<String, Stage> getStages() {
+        return new TreeMap<String, Stage>(stages);
+    }
+
+    /**
+     * Start every stage afresh, for instance after an update.
+     */
+    public static void reset() {
+        for (Stage stage : stages.values()) {
+            stage.reset();
+        }
+        lastFrame.set(-1);
+    }
+}
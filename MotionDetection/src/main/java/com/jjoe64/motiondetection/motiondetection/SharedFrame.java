@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An encoded frame shared between the consumers of a {@link FrameHub}. The
+ * bytes are never changed once published. Each holder owns a reference and
+ * gives it back with {@link #release()}; when the last one is gone the frame
+ * is handed to the hub's {@link Recycler}, so the data must not be read after
+ * releasing.
+ */
+public class SharedFrame {
+
+    /**
+     * Takes back the data of frames nobody holds any more.
+     */
+    public interface Recycler {
+
+        void recycle(SharedFrame frame);
+    }
+
+    private final byte[] data;
+    private final int length;
+    private final long sequence;
+    private final long timestamp;
+    private final Recycler recycler;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    SharedFrame(byte[] data, int length, long sequence, long timestamp, Recycler recycler) {
+        this.data = data;
+        this.length = length;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.recycler = recycler;
+    }
+
+    /**
+     * Bytes of the frame, valid up to {@link #getLength()}.
+     * 
+     * @return byte array that must not be changed.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Position of the frame in the hub, counting up from 1.
+     * 
+     * @return long sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    void acquire() {
+        if (references.getAndIncrement() <= 0) throw new IllegalStateException("Frame " + sequence + " was already recycled");
+    }
+
+    /**
+     * Give back a reference to the frame.
+     * 
+     * @throws IllegalStateException
+     *             if the frame was released more often than it was taken.
+     */
+    public void release() {
+        final int left = references.decrementAndGet();
+        if (left < 0) throw new IllegalStateException("Frame " + sequence + " was released too often");
+        if (left == 0 && recycler != null) recycler.recycle(this);
+    }
+}
@@ -21,7 +21,6 @@ public class State {
     private int[] map = null;
     private int width;
     private int height;
-    @SuppressWarnings("FieldCanBeLocal")
     private int average;
 
     public State(int[] data, int width, int height) {
@@ -50,6 +49,15 @@ public class State {
         return map;
     }
 
+    /**
+     * Get the mean luma of the State.
+     * 
+     * @return integer representing the average of every value.
+     */
+    public int getAverage() {
+        return average;
+    }
+
     /**
      * Get the width of the State.
      * 
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Converts YUV420SP (NV21) frames to ARGB in fixed point, without
+ * allocating per frame. The coefficient products of
+ * {@link ImageProcessing#decodeYUV420SPtoRGB(byte[], int, int)} are looked up
+ * rather than multiplied, the chroma terms are worked out once for the two
+ * pixels that share a chroma sample, and the result matches that method
+ * pixel for pixel.
+ *
+ * {@link #convert(byte[], int, int)} converts into an array the converter
+ * keeps and reuses, so a converter must be confined to one thread.
+ * {@link #convertRows(byte[], int, int, int[], int, int)} touches no state
+ * of the converter, so one frame can be split into row ranges converted on
+ * several threads into a shared output array.
+ */
+public class YuvConverter {
+
+    // 1192 * (Y - 16), clamped at zero as the luma decode does
+    private static final int[] Y_1192 = new int[256];
+    // Chroma products, indexed by the unsigned chroma byte
+    private static final int[] V_1634 = new int[256];
+    private static final int[] V_833 = new int[256];
+    private static final int[] U_400 = new int[256];
+    private static final int[] U_2066 = new int[256];
+
+    // Clamping then taking bits 10-17 of an 18 bit channel is the same as
+    // shifting down by 10 then clamping to 0-255, which a table does without
+    // branches. Channels range from about -260 to 535 once shifted.
+    private static final int CLAMP_OFFSET = 384;
+    private static final int[] CLAMP = new int[1024];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            Y_1192[i] = 1192 * Math.max(i - 16, 0);
+            V_1634[i] = 1634 * (i - 128);
+            V_833[i] = 833 * (i - 128);
+            U_400[i] = 400 * (i - 128);
+            U_2066[i] = 2066 * (i - 128);
+        }
+        for (int i = 0; i < CLAMP.length; i++) {
+            CLAMP[i] = Math.max(0, Math.min(255, i - CLAMP_OFFSET));
+        }
+    }
+
+    private int[] rgb = null;
+
+    /**
+     * Convert a frame into the converter's own array, which is reused by the
+     * next call.
+     *
+     * @param yuv420sp
+     *            Byte array representing a YUV420SP image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @return Integer array of width * height ARGB pixels, only valid until
+     *         the next call.
+     * @throws NullPointerException
+     *             if yuv420sp byte array is NULL.
+     */
+    public int[] convert(byte[] yuv420sp, int width, int height) {
+        if (rgb == null || rgb.length != width * height) rgb = new int[width * height];
+        convertRows(yuv420sp, width, height, rgb, 0, height);
+        return rgb;
+    }
+
+    /**
+     * Convert a frame into a caller owned array.
+     *
+     * @param rgb
+     *            Array of at least width * height entries.
+     * @return rgb
+     * @see #convert(byte[], int, int)
+     */
+    public int[] convert(byte[] yuv420sp, int width, int height, int[] rgb) {
+        convertRows(yuv420sp, width, height, rgb, 0, height);
+        return rgb;
+    }
+
+    /**
+     * Convert a range of rows of a frame. Rows outside the range are left as
+     * they are.
+     *
+     * @param yuv420sp
+     *            Byte array representing a YUV420SP image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @param rgb
+     *            Array of at least width * height entries which receives the
+     *            ARGB pixels at the same index as in a full conversion.
+     * @param firstRow
+     *            First row to convert.
+     * @param lastRow
+     *            Row after the last row to convert.
+     * @throws NullPointerException
+     *             if yuv420sp or rgb is NULL.
+     * @throws IllegalArgumentException
+     *             if an array is too small or the rows are out of range.
+     */
+    public void convertRows(byte[] yuv420sp, int width, int height, int[] rgb, int firstRow, int lastRow) {
+        if (yuv420sp == null || rgb == null) throw new NullPointerException();
+
+        final int frameSize = width * height;
+        if (yuv420sp.length < frameSize + ((height - 1) >> 1) * width + ((width + 1) & ~1) || rgb.length < frameSize) throw new IllegalArgumentException("Array smaller than the frame");
+        if (firstRow < 0 || lastRow > height || firstRow > lastRow) throw new IllegalArgumentException("Invalid rows " + firstRow + "-" + lastRow);
+
+        final int pairs = width & ~1;
+        for (int j = firstRow; j < lastRow; j++) {
+            int yp = j * width;
+            int uvp = frameSize + (j >> 1) * width;
+            int i = 0;
+            for (; i < pairs; i += 2, yp += 2) {
+                final int v = 0xff & yuv420sp[uvp++];
+                final int u = 0xff & yuv420sp[uvp++];
+                final int r = V_1634[v];
+                final int g = -V_833[v] - U_400[u];
+                final int b = U_2066[u];
+
+                int y1192 = Y_1192[0xff & yuv420sp[yp]];
+                rgb[yp] = pack(y1192 + r, y1192 + g, y1192 + b);
+                y1192 = Y_1192[0xff & yuv420sp[yp + 1]];
+                rgb[yp + 1] = pack(y1192 + r, y1192 + g, y1192 + b);
+            }
+            if (i < width) {
+                // odd width, the last pixel has a chroma sample of its own
+                final int v = 0xff & yuv420sp[uvp++];
+                final int u = 0xff & yuv420sp[uvp];
+                final int y1192 = Y_1192[0xff & yuv420sp[yp]];
+                rgb[yp] = pack(y1192 + V_1634[v], y1192 - V_833[v] - U_400[u], y1192 + U_2066[u]);
+            }
+        }
+    }
+
+    private static int pack(int r, int g, int b) {
+        return 0xff000000 | (CLAMP[(r >> 10) + CLAMP_OFFSET] << 16) | (CLAMP[(g >> 10) + CLAMP_OFFSET] << 8) | CLAMP[(b >> 10) + CLAMP_OFFSET];
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+/**
+ * Rotates YUV420SP (NV21) frames by quarter turns, optionally mirrored, in
+ * the YUV domain, so a frame can be turned upright before it is converted or
+ * encoded rather than as a Bitmap afterwards. The Y plane is turned pixel by
+ * pixel and the interleaved VU plane pair by pair.
+ *
+ * The rotated frame is written into a buffer the rotator keeps between
+ * frames, so a rotator must be confined to one thread.
+ */
+public class YuvRotator {
+
+    private byte[] buffer = null;
+    private int width;
+    private int height;
+
+    /**
+     * Bring a rotation in degrees to 0, 90, 180 or 270.
+     *
+     * @param degrees
+     *            Clockwise rotation, negative for anticlockwise.
+     * @return int clockwise rotation from 0 to 270.
+     * @throws IllegalArgumentException
+     *             if degrees is not a multiple of 90.
+     */
+    public static int normalize(int degrees) {
+        if (degrees % 90 != 0) throw new IllegalArgumentException("Rotation must be a multiple of 90: " + degrees);
+        return ((degrees % 360) + 360) % 360;
+    }
+
+    /**
+     * Rotate a frame into the rotator's own buffer, which is reused by the
+     * next call. Use {@link #getWidth()} and {@link #getHeight()} for the
+     * size of the result.
+     *
+     * @param nv21
+     *            Byte array holding an NV21 frame.
+     * @param width
+     *            Width of the frame, even.
+     * @param height
+     *            Height of the frame, even.
+     * @param degrees
+     *            Clockwise rotation, a multiple of 90.
+     * @param mirror
+     *            Flip the rotated frame left to right.
+     * @return Byte array holding the rotated NV21 frame, only valid until the
+     *         next call.
+     * @throws NullPointerException
+     *             if nv21 is NULL.
+     * @throws IllegalArgumentException
+     *             if the frame is too small, of odd size, or degrees is not
+     *             a multiple of 90.
+     */
+    public byte[] rotate(byte[] nv21, int width, int height, int degrees, boolean mirror) {
+        final int size = frameSize(width, height);
+        if (buffer == null || buffer.length != size) buffer = new byte[size];
+        return rotate(nv21, width, height, degrees, mirror, buffer);
+    }
+
+    /**
+     * Rotate a frame into a caller owned array.
+     *
+     * @param out
+     *            Array of at least width * height * 3 / 2 bytes.
+     * @return out
+     * @see #rotate(byte[], int, int, int, boolean)
+     */
+    public byte[] rotate(byte[] nv21, int width, int height, int degrees, boolean mirror, byte[] out) {
+        if (nv21 == null || out == null) throw new NullPointerException();
+
+        final int size = frameSize(width, height);
+        if (nv21.length < size || out.length < size) throw new IllegalArgumentException("Array smaller than the frame");
+        final int rotation = normalize(degrees);
+        final boolean turned = rotation == 90 || rotation == 270;
+
+        this.width = turned ? height : width;
+        this.height = turned ? width : height;
+
+        final int lumaSize = width * height;
+        if (rotation == 0 && !mirror) {
+            System.arraycopy(nv21, 0, out, 0, size);
+        } else {
+            rotatePlane(nv21, 0, width, height, 1, out, 0, rotation, mirror);
+            rotatePlane(nv21, lumaSize, width / 2, height / 2, 2, out, lumaSize, rotation, mirror);
+        }
+        return out;
+    }
+
+    /**
+     * Turn a plane of samples of one or more bytes. Each rotation maps a
+     * source pixel (x, y) onto (ox, oy) of the output, and along a source row
+     * the output index moves by a fixed step, so every row is a single
+     * strided walk.
+     */
+    private static void rotatePlane(byte[] in, int inOffset, int w, int h, int sample,
+                                    byte[] out, int outOffset, int rotation, boolean mirror) {
+        final int ow = (rotation == 90 || rotation == 270) ? h : w;
+
+        // ox = axx * x + axy * y + cx, oy = ayx * x + ayy * y + cy
+        int axx, axy, cx, ayx, ayy, cy;
+        switch (rotation) {
+            case 90:
+                axx = 0; axy = -1; cx = h - 1;
+                ayx = 1; ayy = 0; cy = 0;
+                break;
+            case 180:
+                axx = -1; axy = 0; cx = w - 1;
+                ayx = 0; ayy = -1; cy = h - 1;
+                break;
+            case 270:
+                axx = 0; axy = 1; cx = 0;
+                ayx = -1; ayy = 0; cy = w - 1;
+                break;
+            default:
+                axx = 1; axy = 0; cx = 0;
+                ayx = 0; ayy = 1; cy = 0;
+                break;
+        }
+        if (mirror) {
+            axx = -axx;
+            axy = -axy;
+            cx = ow - 1 - cx;
+        }
+
+        final int step = (ayx * ow + axx) * sample;
+        for (int y = 0, src = inOffset; y < h; y++) {
+            int dst = outOffset + ((ayy * y + cy) * ow + axy * y + cx) * sample;
+            if (sample == 1) {
+                for (int x = 0; x < w; x++, src++, dst += step) {
+                    out[dst] = in[src];
+                }
+            } else {
+                for (int x = 0; x < w; x++, src += 2, dst += step) {
+                    out[dst] = in[src];
+                    out[dst + 1] = in[src + 1];
+                }
+            }
+        }
+    }
+
+    private static int frameSize(int width, int height) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("Frame must have an even size: " + width + "x" + height);
+        }
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Width of the last rotated frame.
+     *
+     * @return int width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Height of the last rotated frame.
+     *
+     * @return int height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Once a frame of a given size has been seen, the box mean paths of the
+ * motion engines must not allocate anything per frame. Checked with the
+ * allocation counter the JVM keeps for the calling thread.
+ */
+public class AllocationTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int WARMUP = 2000;
+    private static final int FRAMES = 500;
+
+    private com.sun.management.ThreadMXBean threads;
+    private byte[][] frames;
+    private int[][] planes;
+
+    @Before
+    public void setUp() {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        frames = new byte[][] {
+                TestFrames.still(WIDTH, HEIGHT, 1),
+                TestFrames.nv21(WIDTH, HEIGHT, 2, WIDTH / 4, HEIGHT / 4)
+        };
+        planes = new int[][] {
+                TestFrames.luma(frames[0], WIDTH, HEIGHT),
+                TestFrames.luma(frames[1], WIDTH, HEIGHT)
+        };
+    }
+
+    @Test
+    public void integralPlanesDoNotAllocate() {
+        final AggregateLumaMotionDetection detector = new AggregateLumaMotionDetection();
+        detector.setComparerMode(AggregateLumaMotionDetection.COMPARER_INTEGRAL);
+        detector.setLightingCompensation(true);
+        assertNoAllocation(new Runnable() {
+            private int next;
+
+            @Override
+            public void run() {
+                detector.detect(planes[next ^= 1], WIDTH, HEIGHT);
+            }
+        });
+        // and it still compares
+        detector.detect(planes[0], WIDTH, HEIGHT);
+        assertTrue(detector.detect(planes[1], WIDTH, HEIGHT));
+        // the frame is not kept, but can be rebuilt from the table
+        assertArrayEquals(planes[1], detector.getPrevious());
+    }
+
+    @Test
+    public void yuvFramesDoNotAllocate() {
+        final AggregateLumaMotionDetection detector = new AggregateLumaMotionDetection();
+        detector.setLightingCompensation(true);
+        detector.setDecimation(2);
+        assertNoAllocation(new Runnable() {
+            private int next;
+
+            @Override
+            public void run() {
+                detector.detect(frames[next ^= 1], WIDTH, HEIGHT);
+            }
+        });
+        detector.detect(frames[0], WIDTH, HEIGHT);
+        assertTrue(detector.detect(frames[1], WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void backgroundModelDoesNotAllocate() {
+        final BackgroundMotionDetection detector = new BackgroundMotionDetection();
+        assertNoAllocation(new Runnable() {
+            private int next;
+
+            @Override
+            public void run() {
+                detector.detect(frames[next ^= 1], WIDTH, HEIGHT);
+            }
+        });
+    }
+
+    @Test
+    public void backgroundPlanesDoNotAllocate() {
+        final BackgroundMotionDetection detector = new BackgroundMotionDetection();
+        assertNoAllocation(new Runnable() {
+            private int next;
+
+            @Override
+            public void run() {
+                detector.detect(planes[next ^= 1], WIDTH, HEIGHT);
+            }
+        });
+        detector.detect(planes[1], WIDTH, HEIGHT);
+        assertArrayEquals(planes[1], detector.getPrevious());
+    }
+
+    @Test
+    public void parallelStripesDoNotAllocate() {
+        // a pool of its own, the shared one has no workers on a single core
+        final ExecutorService pool = MotionWorkers.newPool(3);
+        try {
+            final BoxAggregator aggregator = new BoxAggregator(new BoxGrid(WIDTH, HEIGHT, 10, 10));
+            aggregator.setParallel(pool, 4, 0);
+            final int[] means = new int[100];
+            assertNoAllocation(new Runnable() {
+                private int next;
+
+                @Override
+                public void run() {
+                    aggregator.aggregate(frames[next ^= 1], 0, means);
+                }
+            });
+            // and the stripes still add up to the whole frame
+            final int[] single = new int[100];
+            final long sum = new BoxAggregator(new BoxGrid(WIDTH, HEIGHT, 10, 10)).aggregate(frames[1], 0, single);
+            assertEquals(sum, aggregator.aggregate(frames[1], 0, means));
+            assertArrayEquals(single, means);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void assertNoAllocation(Runnable detect) {
+        for (int i = 0; i < WARMUP; i++) detect.run();
+
+        final long thread = Thread.currentThread().getId();
+        // what reading the counter costs by itself
+        long before = threads.getThreadAllocatedBytes(thread);
+        final long overhead = threads.getThreadAllocatedBytes(thread) - before;
+
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < FRAMES; i++) detect.run();
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+
+        assertEquals("bytes allocated over " + FRAMES + " frames", 0, allocated);
+    }
+}
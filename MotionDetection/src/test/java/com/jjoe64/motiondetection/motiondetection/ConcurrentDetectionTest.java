@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Many detectors, each on a thread of its own and all at once, must see
+ * exactly what each of them sees when they run one after the other. Any
+ * state shared between instances, or with the shared stripe pool, shows up
+ * as a difference.
+ */
+public class ConcurrentDetectionTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int DETECTORS = 16;
+    private static final int FRAMES = 500;
+    private static final String ZONES = "left:0-4,10-14,20-24;right:75-79,85-89,95-99";
+
+    private static byte[][] frames;
+
+    @BeforeClass
+    public static void setUpFrames() {
+        // still frames, a square moving around, and a darker and a brighter still one
+        frames = new byte[12][];
+        for (int i = 0; i < 8; i++) {
+            frames[i] = TestFrames.nv21(WIDTH, HEIGHT, i, i % 2 == 0 ? -1 : (i * WIDTH) / 10, (i * HEIGHT) / 12);
+        }
+        for (int i = 8; i < frames.length; i++) {
+            frames[i] = TestFrames.still(WIDTH, HEIGHT, i);
+            TestFrames.shade(frames[i], WIDTH, 0, 0, WIDTH, HEIGHT, i % 2 == 0 ? -40 : 40);
+        }
+    }
+
+    @Test
+    public void concurrentDetectorsMatchSingleThreadedRuns() throws Exception {
+        final List<List<String>> expected = new ArrayList<List<String>>();
+        for (int d = 0; d < DETECTORS; d++) {
+            expected.add(run(d));
+        }
+
+        final CyclicBarrier start = new CyclicBarrier(DETECTORS);
+        final ExecutorService threads = Executors.newFixedThreadPool(DETECTORS);
+        try {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (int d = 0; d < DETECTORS; d++) {
+                final int detector = d;
+                results.add(threads.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        start.await();
+                        return run(detector);
+                    }
+                }));
+            }
+            for (int d = 0; d < DETECTORS; d++) {
+                assertEquals("detector " + d, expected.get(d), results.get(d).get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+
+        // the frames did make the detectors report something
+        int motion = 0;
+        for (List<String> results : expected) {
+            for (String result : results) {
+                if (result.startsWith("true")) motion++;
+            }
+        }
+        assertTrue(motion > 0);
+    }
+
+    /**
+     * Feed one detector its frame sequence and note everything it reports
+     * after each frame.
+     */
+    private static List<String> run(int detector) {
+        final IYuvMotionDetection engine = create(detector);
+        final List<String> results = new ArrayList<String>(FRAMES);
+        for (int f = 0; f < FRAMES; f++) {
+            // every detector walks the frames in its own order
+            final byte[] frame = frames[(f * (detector + 1) + f / 7) % frames.length];
+            final boolean different = engine.detect(frame, WIDTH, HEIGHT);
+            final MotionRegion region = engine.getMotionRegion();
+            results.add(different + " zones=" + engine.getMotionZones()
+                    + " lighting=" + engine.isLightingChange()
+                    + " dark=" + engine.isTooDark()
+                    + " luma=" + engine.getLumaSum()
+                    + " region=" + region);
+        }
+        return results;
+    }
+
+    /**
+     * Detectors of every engine, with and without decimation, zones, lighting
+     * compensation and stripes on the shared pool.
+     */
+    private static IYuvMotionDetection create(int detector) {
+        // chosen apart from the engine, so every engine runs with and without both
+        final boolean lighting = (detector / 6) % 2 == 0;
+        final boolean zones = (detector / 3) % 2 == 0;
+        final boolean parallel = detector % 4 < 2;
+        final int decimation = detector % 5 == 0 ? 2 : 1;
+
+        if (detector % 3 == 2) {
+            BackgroundMotionDetection engine = new BackgroundMotionDetection();
+            engine.setLightingCompensation(lighting);
+            engine.setDecimation(decimation);
+            if (zones) engine.setZones(MotionZones.parse(ZONES, 10, 10));
+            engine.setParallel(parallel);
+            engine.setParallelThreshold(1);
+            return engine;
+        }
+
+        AggregateLumaMotionDetection engine = new AggregateLumaMotionDetection();
+        engine.setLightingCompensation(lighting);
+        engine.setDecimation(decimation);
+        if (zones) engine.setZones(MotionZones.parse(ZONES, 10, 10));
+        engine.setParallel(parallel);
+        engine.setParallelThreshold(1);
+        return engine;
+    }
+}
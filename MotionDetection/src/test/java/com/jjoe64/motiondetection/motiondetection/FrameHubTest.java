@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cursors of the hub: a late consumer waits for the next frame, a slow one
+ * skips to the newest, listeners are told once per wait, and a frame goes
+ * back to the recycler only once the hub and every consumer let go of it.
+ */
+public class FrameHubTest {
+
+    /** Keeps what the hub recycles, in order. */
+    private static class Recycled implements SharedFrame.Recycler {
+
+        final List<SharedFrame> frames = new ArrayList<SharedFrame>();
+
+        @Override
+        public void recycle(SharedFrame frame) {
+            frames.add(frame);
+        }
+    }
+
+    @Test
+    public void lateConsumerWaitsForTheNextFrame() {
+        final FrameHub hub = new FrameHub();
+        hub.publish(new byte[1], 1, 0);
+
+        final FrameHub.Cursor cursor = hub.subscribe(null);
+        assertNull(cursor.poll());
+        assertTrue(hub.hasDemand());
+
+        hub.publish(new byte[2], 2, 0);
+        final SharedFrame frame = cursor.poll();
+        assertEquals(2, frame.getSequence());
+        assertEquals(2, frame.getLength());
+        frame.release();
+        assertEquals(0, cursor.getSkipped());
+    }
+
+    @Test
+    public void slowConsumerSkipsToTheNewest() {
+        final FrameHub hub = new FrameHub();
+        final FrameHub.Cursor fast = hub.subscribe(null);
+        final FrameHub.Cursor slow = hub.subscribe(null);
+
+        for (int i = 1; i <= 4; i++) {
+            hub.publish(new byte[i], i, i);
+            SharedFrame frame = fast.poll();
+            assertEquals(i, frame.getSequence());
+            frame.release();
+        }
+
+        final SharedFrame frame = slow.poll();
+        assertEquals(4, frame.getSequence());
+        assertEquals(4, frame.getTimestamp());
+        frame.release();
+        assertEquals(3, slow.getSkipped());
+        assertEquals(0, fast.getSkipped());
+        // nothing newer yet
+        assertNull(slow.poll());
+    }
+
+    @Test
+    public void listenerIsToldOncePerWait() {
+        final FrameHub hub = new FrameHub();
+        final List<FrameHub.Cursor> told = new ArrayList<FrameHub.Cursor>();
+        final FrameHub.Cursor cursor = hub.subscribe(new FrameHub.Listener() {
+            @Override
+            public void onFrameAvailable(FrameHub.Cursor cursor) {
+                told.add(cursor);
+            }
+        });
+
+        hub.publish(new byte[1], 1, 0);
+        hub.publish(new byte[1], 1, 0);
+        assertEquals(1, told.size());
+        assertSame(cursor, told.get(0));
+        assertFalse(hub.hasDemand());
+
+        // polled up to date, so it waits and is told again
+        cursor.poll().release();
+        assertNull(cursor.poll());
+        hub.publish(new byte[1], 1, 0);
+        assertEquals(2, told.size());
+
+        cursor.close();
+        assertEquals(0, hub.getConsumers());
+        assertNull(cursor.poll());
+    }
+
+    @Test
+    public void framesAreRecycledOnceNobodyHoldsThem() {
+        final Recycled recycled = new Recycled();
+        final FrameHub hub = new FrameHub(recycled);
+        final FrameHub.Cursor first = hub.subscribe(null);
+        final FrameHub.Cursor second = hub.subscribe(null);
+
+        hub.publish(new byte[1], 1, 0);
+        final SharedFrame a = first.poll();
+        final SharedFrame b = second.poll();
+        assertSame(a, b);
+
+        // the hub lets go when the next frame comes, the consumers still hold it
+        hub.publish(new byte[1], 1, 0);
+        a.release();
+        assertTrue(recycled.frames.isEmpty());
+        b.release();
+        assertEquals(1, recycled.frames.size());
+        assertSame(a, recycled.frames.get(0));
+
+        // an unread frame goes as soon as the hub drops it
+        hub.clear();
+        assertEquals(2, recycled.frames.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasingTooOftenFails() {
+        final FrameHub hub = new FrameHub();
+        final FrameHub.Cursor cursor = hub.subscribe(null);
+        hub.publish(new byte[1], 1, 0);
+        final SharedFrame frame = cursor.poll();
+        frame.release();
+        hub.clear();
+        frame.release();
+    }
+
+    @Test
+    public void streamReusesRecycledBuffers() {
+        final FrameOutputStream stream = new FrameOutputStream(16);
+        final FrameHub hub = new FrameHub(stream);
+        final FrameHub.Cursor cursor = hub.subscribe(null);
+
+        stream.write(1);
+        stream.write(2);
+        stream.publishTo(hub, 5);
+        final SharedFrame frame = cursor.poll();
+        assertEquals(2, frame.getLength());
+        assertEquals(2, frame.getData()[1]);
+        final byte[] data = frame.getData();
+
+        // the stream writes the next frame elsewhere while the first is out
+        stream.write(3);
+        stream.publishTo(hub, 6);
+        frame.release();
+        assertEquals(1, stream.getSpares());
+
+        // the stream goes on in the first frame's buffer, the unread second
+        // frame is recycled as the third replaces it
+        stream.write(4);
+        stream.publishTo(hub, 7);
+        assertEquals(1, stream.getSpares());
+
+        stream.write(5);
+        stream.publishTo(hub, 8);
+        final SharedFrame fourth = cursor.poll();
+        assertSame(data, fourth.getData());
+        assertEquals(1, fourth.getLength());
+        assertEquals(5, fourth.getData()[0]);
+        fourth.release();
+    }
+}
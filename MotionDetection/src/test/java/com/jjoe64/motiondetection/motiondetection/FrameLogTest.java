@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frames written to a {@link FrameLog} read back as they went in, and a log
+ * cut short is reported rather than replayed.
+ */
+public class FrameLogTest {
+
+    private File log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = File.createTempFile("test", ".framelog");
+    }
+
+    @After
+    public void tearDown() {
+        log.delete();
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        byte[] nv21 = TestFrames.still(64, 48, 1);
+        byte[] moving = TestFrames.nv21(64, 48, 2, 16, 12);
+        FrameLogWriter writer = new FrameLogWriter(log);
+        writer.write(FrameLog.FORMAT_NV21, 64, 48, 1000, FrameLog.LABEL_QUIET, nv21, 0);
+        // only the Y plane, from a direct buffer
+        ByteBuffer direct = ByteBuffer.allocateDirect(moving.length);
+        direct.put(moving).flip();
+        writer.write(FrameLog.FORMAT_Y, 64, 48, 1100, FrameLog.LABEL_MOTION, direct);
+        assertEquals(2, writer.getFrames());
+        writer.close();
+
+        FrameLogReader reader = new FrameLogReader(log);
+        try {
+            for (int pass = 0; pass < 2; pass++) {
+                assertTrue(reader.next());
+                assertEquals(FrameLog.FORMAT_NV21, reader.getFormat());
+                assertEquals(64, reader.getWidth());
+                assertEquals(48, reader.getHeight());
+                assertEquals(1000, reader.getTimestamp());
+                assertEquals(FrameLog.LABEL_QUIET, reader.getLabel());
+                assertArrayEquals(nv21, bytes(reader.getData(), nv21.length));
+
+                assertTrue(reader.next());
+                assertEquals(FrameLog.FORMAT_Y, reader.getFormat());
+                assertEquals(1100, reader.getTimestamp());
+                assertEquals(FrameLog.LABEL_MOTION, reader.getLabel());
+                assertArrayEquals(Arrays.copyOf(moving, 64 * 48), bytes(reader.getData(), 64 * 48));
+
+                assertFalse(reader.next());
+                assertEquals(2, reader.getFrames());
+                reader.rewind();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void reportsTruncatedLog() throws IOException {
+        FrameLogWriter writer = new FrameLogWriter(log);
+        writer.write(FrameLog.FORMAT_NV21, 64, 48, 0, FrameLog.LABEL_UNKNOWN, TestFrames.still(64, 48, 1), 0);
+        writer.close();
+        RandomAccessFile file = new RandomAccessFile(log, "rw");
+        file.setLength(file.length() - 100);
+        file.close();
+
+        FrameLogReader reader = new FrameLogReader(log);
+        try {
+            reader.next();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(log, "rw");
+        file.writeInt(0x12345678);
+        file.writeInt(FrameLog.VERSION);
+        file.close();
+        new FrameLogReader(log).close();
+    }
+
+    private static byte[] bytes(ByteBuffer data, int length) {
+        byte[] out = new byte[length];
+        data.duplicate().get(out);
+        return out;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A stage finishes the frame it is handling before stop returns, and a frame
+ * whose handler throws does not end the stage.
+ */
+public class FrameWorkerTest {
+
+    private final List<Integer> failures = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Test
+    public void stopWaitsForFrameBeingHandled() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final boolean[] finished = new boolean[1];
+        final FrameWorker<Integer> worker = new FrameWorker<Integer>("test", new FrameWorker.Handler<Integer>() {
+            @Override
+            public void handle(Integer frame) {
+                started.countDown();
+                // the interrupt of stop must not cut the frame short
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+                synchronized (finished) {
+                    finished[0] = true;
+                }
+            }
+
+            @Override
+            public void fail(Integer frame, RuntimeException e) {
+                failures.add(frame);
+            }
+
+            @Override
+            public void drop(Integer frame) {
+            }
+        });
+        worker.start();
+        worker.offer(1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(worker.stop());
+        synchronized (finished) {
+            assertTrue(finished[0]);
+        }
+        assertEquals(1, worker.getHandled());
+    }
+
+    @Test
+    public void failingFrameDoesNotEndStage() throws Exception {
+        final CountDownLatch handled = new CountDownLatch(2);
+        final FrameWorker<Integer> worker = new FrameWorker<Integer>("test", new FrameWorker.Handler<Integer>() {
+            @Override
+            public void handle(Integer frame) {
+                handled.countDown();
+                if (frame == 1) throw new IllegalStateException("expected by the test");
+            }
+
+            @Override
+            public void fail(Integer frame, RuntimeException e) {
+                failures.add(frame);
+            }
+
+            @Override
+            public void drop(Integer frame) {
+            }
+        });
+        worker.start();
+        worker.offer(1);
+        while (!worker.isIdle()) {
+            Thread.sleep(1);
+        }
+        worker.offer(2);
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+
+        assertTrue(worker.stop());
+        assertEquals(2, worker.getHandled());
+        assertEquals(1, worker.getFailed());
+        assertEquals(Collections.singletonList(1), failures);
+        assertFalse(worker.offer(3));
+    }
+
+    @Test
+    public void errorEndsStage() throws Exception {
+        final List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FrameWorker<Integer> worker = new FrameWorker<Integer>("test", new FrameWorker.Handler<Integer>() {
+            @Override
+            public void handle(Integer frame) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new AssertionError("expected by the test");
+            }
+
+            @Override
+            public void fail(Integer frame, RuntimeException e) {
+                failures.add(frame);
+            }
+
+            @Override
+            public void drop(Integer frame) {
+                dropped.add(frame);
+            }
+        });
+        worker.start();
+        worker.offer(1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // waits behind the frame that will fail
+        worker.offer(2);
+        release.countDown();
+        while (worker.offer(3)) {
+            Thread.sleep(1);
+        }
+
+        assertTrue(failures.isEmpty());
+        assertEquals(1, worker.getHandled());
+        assertTrue(dropped.contains(2));
+        assertTrue(dropped.contains(3));
+        assertTrue(worker.isIdle());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * What the encoder writes must decode, with the standard decoder of the JVM,
+ * to the frame it was given: the same size, luma close to the Y plane and
+ * chroma in the right order.
+ */
+public class JpegEncoderTest {
+
+    @Test
+    public void decodesToTheFrame() throws IOException {
+        final byte[] frame = TestFrames.nv21(320, 240, 1, 80, 60);
+        final BufferedImage image = decode(encode(new JpegEncoder(), frame, 320, 240, 90));
+
+        assertEquals(320, image.getWidth());
+        assertEquals(240, image.getHeight());
+        assertTrue("mean luma error " + lumaError(frame, image), lumaError(frame, image) < 2.5);
+    }
+
+    @Test
+    public void sizesOffTheBlockGridAreEncoded() throws IOException {
+        final int[][] sizes = { { 2, 2 }, { 18, 14 }, { 50, 38 }, { 638, 478 } };
+        for (int[] size : sizes) {
+            final byte[] frame = TestFrames.nv21(size[0], size[1], 2, -1, 0);
+            final BufferedImage image = decode(encode(new JpegEncoder(), frame, size[0], size[1], 90));
+
+            assertEquals(size[0], image.getWidth());
+            assertEquals(size[1], image.getHeight());
+            // the edge pixels are repeated into the partial blocks, not black
+            assertTrue(size[0] + "x" + size[1], lumaError(frame, image) < 4.0);
+        }
+    }
+
+    @Test
+    public void reusedEncoderMatchesNewOne() throws IOException {
+        final JpegEncoder encoder = new JpegEncoder();
+        final byte[] large = TestFrames.nv21(640, 480, 3, 100, 100);
+        final byte[] small = TestFrames.nv21(50, 38, 4, 10, 10);
+
+        // a larger frame first grows the buffer, then size and quality change
+        encode(encoder, large, 640, 480, 90);
+        assertArrayEquals(encode(new JpegEncoder(), small, 50, 38, 40), encode(encoder, small, 50, 38, 40));
+        assertArrayEquals(encode(new JpegEncoder(), large, 640, 480, 90), encode(encoder, large, 640, 480, 90));
+    }
+
+    @Test
+    public void chromaKeepsItsOrder() throws IOException {
+        final int width = 32;
+        final int height = 32;
+        final byte[] frame = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; i++) {
+            frame[i] = (byte) 128;
+        }
+        // NV21 is V then U, a strong V and a weak U is red
+        for (int i = width * height; i < frame.length; i += 2) {
+            frame[i] = (byte) 220;
+            frame[i + 1] = (byte) 90;
+        }
+        final int rgb = decode(encode(new JpegEncoder(), frame, width, height, 90)).getRGB(16, 16);
+        final int red = (rgb >> 16) & 0xff;
+        final int green = (rgb >> 8) & 0xff;
+        final int blue = rgb & 0xff;
+        assertTrue("rgb " + red + "," + green + "," + blue, red > 200 && green < 128 && blue < 128);
+    }
+
+    @Test
+    public void rejectsOddSizes() throws IOException {
+        final byte[] frame = TestFrames.nv21(52, 38, 5, -1, 0);
+        try {
+            encode(new JpegEncoder(), frame, 51, 38, 90);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            encode(new JpegEncoder(), frame, 52, 37, 90);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static byte[] encode(JpegEncoder encoder, byte[] frame, int width, int height, int quality) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(frame, width, height, quality, out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull("not a JPEG the JVM can read", image);
+        return image;
+    }
+
+    /**
+     * Mean difference between the Y plane and the JFIF luma of the decoded
+     * image.
+     */
+    private static double lumaError(byte[] frame, BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        long error = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int rgb = image.getRGB(x, y);
+                final double luma = 0.299 * ((rgb >> 16) & 0xff) + 0.587 * ((rgb >> 8) & 0xff) + 0.114 * (rgb & 0xff);
+                error += Math.abs(Math.round(luma) - (frame[y * width + x] & 0xff));
+            }
+        }
+        return (double) error / (width * height);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays a scripted scene through every engine and decimation the app
+ * offers and checks detections, false positives and misses against the
+ * labels of the log, frame by frame. A change to an engine that changes what
+ * it detects on this scene fails here, and the expected results have to be
+ * updated knowingly.
+ */
+@RunWith(Parameterized.class)
+public class MotionReplayTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    // one character per frame, see MotionReplay.getResults()
+    private static final String FRAME = "....................MMMMMMMMMMM....................M...................DDDDD";
+    private static final String FRAME_LIGHTING = "....................MMMMMMMMMMM....................L...................DDDDD";
+    private static final String BACKGROUND = "....................MMMMMMMMMM.....................MMMMMMMMMMMMMMMMMMMMDDDDD";
+    private static final String BACKGROUND_LIGHTING = "....................MMMMMMMMMM.....................L...................DDDDD";
+
+    private static File log;
+    private static FrameLogReader reader;
+
+    @Parameterized.Parameters(name = "{0} decimation {1} lighting {2}")
+    public static Collection<Object[]> settings() {
+        return Arrays.asList(new Object[][] {
+                // engine, decimation, lighting compensation, results, detections, false positives, misses
+                // frame difference sees the step in lighting as motion, once
+                {"frame", 1, false, FRAME, 12, 1, 0},
+                {"frame", 2, false, FRAME, 12, 1, 0},
+                {"frame", 4, false, FRAME, 12, 1, 0},
+                {"frame", 8, false, FRAME, 12, 1, 0},
+                {"frame", 1, true, FRAME_LIGHTING, 11, 0, 0},
+                {"frame", 4, true, FRAME_LIGHTING, 11, 0, 0},
+                // the background model does until it has learnt the darker room, and misses
+                // the frame the walker has just left, which it never saw as background
+                {"background", 1, false, BACKGROUND, 30, 20, 1},
+                {"background", 2, false, BACKGROUND, 30, 20, 1},
+                {"background", 4, false, BACKGROUND, 30, 20, 1},
+                {"background", 8, false, BACKGROUND, 30, 20, 1},
+                {"background", 1, true, BACKGROUND_LIGHTING, 10, 0, 1},
+                {"background", 4, true, BACKGROUND_LIGHTING, 10, 0, 1},
+        });
+    }
+
+    private final String engine;
+    private final int decimation;
+    private final boolean lighting;
+    private final String results;
+    private final int detections;
+    private final int falsePositives;
+    private final int misses;
+
+    public MotionReplayTest(String engine, int decimation, boolean lighting, String results,
+                            int detections, int falsePositives, int misses) {
+        this.engine = engine;
+        this.decimation = decimation;
+        this.lighting = lighting;
+        this.results = results;
+        this.detections = detections;
+        this.falsePositives = falsePositives;
+        this.misses = misses;
+    }
+
+    /**
+     * An empty room, somebody walking through it, the lights going down and
+     * then out, written as an NV21 frame log.
+     */
+    @BeforeClass
+    public static void writeScene() throws IOException {
+        log = File.createTempFile("scene", ".framelog");
+        FrameLogWriter writer = new FrameLogWriter(log);
+        try {
+            long time = 0;
+            int seed = 0;
+            // quiet room
+            for (int i = 0; i < 20; i++) {
+                writer.write(FrameLog.FORMAT_NV21, WIDTH, HEIGHT, time += 100, FrameLog.LABEL_QUIET,
+                        TestFrames.still(WIDTH, HEIGHT, seed++), 0);
+            }
+            // somebody walks across, and out of the frame again
+            for (int i = 0; i < 10; i++) {
+                writer.write(FrameLog.FORMAT_NV21, WIDTH, HEIGHT, time += 100, FrameLog.LABEL_MOTION,
+                        TestFrames.nv21(WIDTH, HEIGHT, seed++, (i * WIDTH) / 12, HEIGHT / 3), 0);
+            }
+            writer.write(FrameLog.FORMAT_NV21, WIDTH, HEIGHT, time += 100, FrameLog.LABEL_MOTION,
+                    TestFrames.still(WIDTH, HEIGHT, seed++), 0);
+            for (int i = 0; i < 20; i++) {
+                writer.write(FrameLog.FORMAT_NV21, WIDTH, HEIGHT, time += 100, FrameLog.LABEL_QUIET,
+                        TestFrames.still(WIDTH, HEIGHT, seed++), 0);
+            }
+            // the lights go down in one step and stay down
+            for (int i = 0; i < 20; i++) {
+                byte[] frame = TestFrames.still(WIDTH, HEIGHT, seed++);
+                TestFrames.shade(frame, WIDTH, 0, 0, WIDTH, HEIGHT, -30);
+                writer.write(FrameLog.FORMAT_NV21, WIDTH, HEIGHT, time += 100, FrameLog.LABEL_QUIET, frame, 0);
+            }
+            // and out
+            for (int i = 0; i < 5; i++) {
+                byte[] frame = TestFrames.still(WIDTH, HEIGHT, seed++);
+                TestFrames.shade(frame, WIDTH, 0, 0, WIDTH, HEIGHT, -255);
+                writer.write(FrameLog.FORMAT_NV21, WIDTH, HEIGHT, time += 100, FrameLog.LABEL_UNKNOWN, frame, 0);
+            }
+        } finally {
+            writer.close();
+        }
+        reader = new FrameLogReader(log);
+    }
+
+    @AfterClass
+    public static void deleteScene() throws IOException {
+        reader.close();
+        log.delete();
+    }
+
+    @Test
+    public void replaysScene() throws IOException {
+        MotionReplay replay = new MotionReplay();
+        replay.setEngine("background".equals(engine) ? MotionReplay.ENGINE_BACKGROUND : MotionReplay.ENGINE_FRAME_DIFFERENCE);
+        replay.setDecimation(decimation);
+        replay.setLightingCompensation(lighting);
+        replay.replay(reader, null);
+
+        assertEquals(76, replay.getFrames());
+        assertEquals(results, replay.getResults());
+        assertEquals(detections, replay.getDetections());
+        assertEquals(falsePositives, replay.getFalsePositives());
+        assertEquals(misses, replay.getMisses());
+    }
+}
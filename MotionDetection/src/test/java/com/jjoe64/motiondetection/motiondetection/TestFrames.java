@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import java.util.Random;
+
+/**
+ * Synthetic NV21 frames for the tests: a lit gradient with sensor noise and a
+ * grey chroma plane, optionally with a bright square standing in for
+ * something moving through the scene. Frames are seeded, so every run sees
+ * the same bytes.
+ */
+final class TestFrames {
+
+    private TestFrames() {
+    }
+
+    /**
+     * @param width
+     *            Width of the frame, even.
+     * @param height
+     *            Height of the frame, even.
+     * @param seed
+     *            Seed of the noise.
+     * @param squareX
+     *            Left edge of a bright square a quarter of the frame wide
+     *            and high, or less than 0 for none.
+     * @param squareY
+     *            Top edge of the square.
+     * @return byte array of width * height * 3 / 2 NV21 bytes.
+     */
+    static byte[] nv21(int width, int height, long seed, int squareX, int squareY) {
+        final Random random = new Random(seed);
+        final int frameSize = width * height;
+        final byte[] frame = new byte[frameSize + frameSize / 2];
+
+        for (int y = 0, i = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, i++) {
+                frame[i] = (byte) (40 + (x * 120) / width + (y * 60) / height + random.nextInt(9) - 4);
+            }
+        }
+        if (squareX >= 0) {
+            for (int y = squareY; y < Math.min(height, squareY + height / 4); y++) {
+                for (int x = squareX; x < Math.min(width, squareX + width / 4); x++) {
+                    frame[y * width + x] = (byte) (220 + random.nextInt(9) - 4);
+                }
+            }
+        }
+        for (int i = frameSize; i < frame.length; i++) {
+            frame[i] = (byte) (128 + random.nextInt(5) - 2);
+        }
+        return frame;
+    }
+
+    /**
+     * Frame without anything moving in it.
+     */
+    static byte[] still(int width, int height, long seed) {
+        return nv21(width, height, seed, -1, 0);
+    }
+
+    /**
+     * Change the luma of every pixel in a rectangle, clamped to 0..255.
+     */
+    static void shade(byte[] frame, int width, int left, int top, int right, int bottom, int change) {
+        for (int y = top; y < bottom; y++) {
+            for (int x = left, i = y * width + left; x < right; x++, i++) {
+                frame[i] = (byte) Math.max(0, Math.min(255, (frame[i] & 0xff) + change));
+            }
+        }
+    }
+
+    static int[] luma(byte[] frame, int width, int height) {
+        return ImageProcessing.decodeYUV420SPtoLuma(frame, width, height);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The table driven converter must give exactly what
+ * {@link ImageProcessing#decodeYUV420SPtoRGB(byte[], int, int)} gives, for
+ * every byte value, odd and even sizes, and any split into row ranges.
+ */
+public class YuvConverterTest {
+
+    private static final int[][] SIZES = { { 1, 1 }, { 2, 2 }, { 3, 5 }, { 17, 9 }, { 64, 48 }, { 65, 49 }, { 320, 240 } };
+
+    @Test
+    public void matchesDecodeForEverySize() {
+        final YuvConverter converter = new YuvConverter();
+        for (int[] size : SIZES) {
+            final byte[] frame = frame(size[0], size[1], size[0] * 31 + size[1]);
+            final int[] expected = ImageProcessing.decodeYUV420SPtoRGB(frame, size[0], size[1]);
+
+            assertArrayEquals(size[0] + "x" + size[1], expected, converter.convert(frame, size[0], size[1]));
+            assertArrayEquals(size[0] + "x" + size[1], expected, converter.convert(frame, size[0], size[1], new int[size[0] * size[1]]));
+        }
+    }
+
+    @Test
+    public void rowRangesMatchDecode() {
+        final YuvConverter converter = new YuvConverter();
+        for (int[] size : SIZES) {
+            final int width = size[0];
+            final int height = size[1];
+            final byte[] frame = frame(width, height, width * 7 + height);
+            final int[] expected = ImageProcessing.decodeYUV420SPtoRGB(frame, width, height);
+
+            // split at odd rows too, so a pair of rows sharing chroma is cut in two
+            final int split = height / 3;
+            final int[] rgb = new int[width * height];
+            Arrays.fill(rgb, 7);
+            converter.convertRows(frame, width, height, rgb, split, height);
+            for (int i = 0; i < split * width; i++) {
+                assertEquals("row outside the range was touched", 7, rgb[i]);
+            }
+            converter.convertRows(frame, width, height, rgb, 0, split);
+            assertArrayEquals(width + "x" + height, expected, rgb);
+        }
+    }
+
+    /**
+     * Frame of random bytes, chroma included, so every clamp is reached. Odd
+     * sizes get the chroma of their last column and row too.
+     */
+    private static byte[] frame(int width, int height, long seed) {
+        final byte[] frame = new byte[width * height + ((height + 1) / 2) * (width + 1)];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+}
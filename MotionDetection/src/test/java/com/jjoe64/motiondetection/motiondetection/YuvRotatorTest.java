@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Every quarter turn, mirrored or not, must move each luma sample and each
+ * VU pair where a plain pixel by pixel rotation puts it, with V still ahead
+ * of U in every pair.
+ */
+public class YuvRotatorTest {
+
+    private static final int[][] SIZES = { { 2, 2 }, { 4, 2 }, { 6, 4 }, { 320, 240 } };
+
+    @Test
+    public void matchesPixelByPixelRotation() {
+        final YuvRotator rotator = new YuvRotator();
+        for (int[] size : SIZES) {
+            final int width = size[0];
+            final int height = size[1];
+            final byte[] frame = new byte[width * height * 3 / 2];
+            new Random(width * 31 + height).nextBytes(frame);
+
+            for (int degrees = 0; degrees < 360; degrees += 90) {
+                for (int m = 0; m < 2; m++) {
+                    final boolean mirror = m == 1;
+                    final String name = width + "x" + height + " " + degrees + (mirror ? " mirrored" : "");
+                    final byte[] expected = rotate(frame, width, height, degrees, mirror);
+
+                    assertArrayEquals(name, expected, rotator.rotate(frame, width, height, degrees, mirror));
+                    assertEquals(name, degrees % 180 == 0 ? width : height, rotator.getWidth());
+                    assertEquals(name, degrees % 180 == 0 ? height : width, rotator.getHeight());
+                    assertArrayEquals(name, expected, rotator.rotate(frame, width, height, degrees, mirror, new byte[frame.length]));
+                    // anticlockwise turns are the same clockwise ones
+                    assertArrayEquals(name, expected, rotator.rotate(frame, width, height, degrees - 360, mirror));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddSizes() {
+        new YuvRotator().rotate(new byte[5 * 4 * 3 / 2 + 1], 5, 4, 90, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPartTurns() {
+        new YuvRotator().rotate(new byte[4 * 4 * 3 / 2], 4, 4, 45, false);
+    }
+
+    /**
+     * Rotate each plane by looking up, for every sample of the result, the
+     * sample of the frame it comes from.
+     */
+    private static byte[] rotate(byte[] frame, int width, int height, int degrees, boolean mirror) {
+        final byte[] out = new byte[frame.length];
+        rotatePlane(frame, 0, width, height, 1, out, degrees, mirror);
+        rotatePlane(frame, width * height, width / 2, height / 2, 2, out, degrees, mirror);
+        return out;
+    }
+
+    private static void rotatePlane(byte[] in, int offset, int w, int h, int sample, byte[] out, int degrees, boolean mirror) {
+        final int ow = degrees % 180 == 0 ? w : h;
+        final int oh = degrees % 180 == 0 ? h : w;
+        for (int oy = 0; oy < oh; oy++) {
+            for (int ox = 0; ox < ow; ox++) {
+                // undo the mirror, then the clockwise turn
+                final int rx = mirror ? ow - 1 - ox : ox;
+                final int x;
+                final int y;
+                switch (degrees) {
+                    case 90:
+                        x = oy;
+                        y = h - 1 - rx;
+                        break;
+                    case 180:
+                        x = w - 1 - rx;
+                        y = h - 1 - oy;
+                        break;
+                    case 270:
+                        x = w - 1 - oy;
+                        y = rx;
+                        break;
+                    default:
+                        x = rx;
+                        y = oy;
+                        break;
+                }
+                for (int b = 0; b < sample; b++) {
+                    out[offset + (oy * ow + ox) * sample + b] = in[offset + (y * w + x) * sample + b];
+                }
+            }
+        }
+    }
+}
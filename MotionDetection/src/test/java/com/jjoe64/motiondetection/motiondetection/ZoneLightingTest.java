@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jjoe64.motiondetection.motiondetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * With zones and lighting compensation both on, the lighting change is taken
+ * over the whole frame. A zone that is darkened on its own is motion in that
+ * zone, not a lighting change, while the whole frame brightening stays a
+ * lighting change.
+ */
+public class ZoneLightingTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int STILL = 20;
+    private static final String ZONES = "door:0-1,10-11";
+
+    @Test
+    public void darkenedZoneIsMotion() {
+        for (IYuvMotionDetection engine : engines()) {
+            assertTrue(afterStill(engine, shaded(2 * WIDTH / 10, 2 * HEIGHT / 10, -60), false));
+            assertFalse(engine.isLightingChange());
+            assertEquals(1, engine.getMotionZones());
+        }
+        for (IYuvMotionDetection engine : engines()) {
+            assertTrue(afterStill(engine, shaded(2 * WIDTH / 10, 2 * HEIGHT / 10, -60), true));
+            assertFalse(engine.isLightingChange());
+            assertEquals(1, engine.getMotionZones());
+        }
+    }
+
+    @Test
+    public void brightenedFrameIsLighting() {
+        for (IYuvMotionDetection engine : engines()) {
+            assertFalse(afterStill(engine, shaded(WIDTH, HEIGHT, 30), false));
+            assertTrue(engine.isLightingChange());
+        }
+        for (IYuvMotionDetection engine : engines()) {
+            assertFalse(afterStill(engine, shaded(WIDTH, HEIGHT, 30), true));
+            assertTrue(engine.isLightingChange());
+        }
+    }
+
+    private static IYuvMotionDetection[] engines() {
+        AggregateLumaMotionDetection frame = new AggregateLumaMotionDetection();
+        frame.setComparerMode(AggregateLumaMotionDetection.COMPARER_INTEGRAL);
+        frame.setLightingCompensation(true);
+        frame.setZones(MotionZones.parse(ZONES, 10, 10));
+        BackgroundMotionDetection background = new BackgroundMotionDetection();
+        background.setLightingCompensation(true);
+        background.setZones(MotionZones.parse(ZONES, 10, 10));
+        return new IYuvMotionDetection[] { frame, background };
+    }
+
+    /**
+     * Still frame with its luma changed from the top left corner to right,
+     * bottom.
+     */
+    private static byte[] shaded(int right, int bottom, int change) {
+        byte[] frame = TestFrames.still(WIDTH, HEIGHT, STILL);
+        TestFrames.shade(frame, WIDTH, 0, 0, right, bottom, change);
+        return frame;
+    }
+
+    /**
+     * Feed still frames, then the given one, through the YUV or the luma path.
+     */
+    private static boolean afterStill(IYuvMotionDetection engine, byte[] last, boolean luma) {
+        for (int f = 0; f < STILL; f++) {
+            detect(engine, TestFrames.still(WIDTH, HEIGHT, f), luma);
+        }
+        return detect(engine, last, luma);
+    }
+
+    private static boolean detect(IYuvMotionDetection engine, byte[] frame, boolean luma) {
+        // both engines take luma planes too
+        return luma ? ((IMotionDetection) engine).detect(TestFrames.luma(frame, WIDTH, HEIGHT), WIDTH, HEIGHT) : engine.detect(frame, WIDTH, HEIGHT);
+    }
+}
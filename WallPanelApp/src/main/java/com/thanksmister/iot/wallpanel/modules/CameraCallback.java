@@ -16,9 +16,14 @@
 
 package com.thanksmister.iot.wallpanel.modules;
 
+import com.thanksmister.iot.wallpanel.utils.MotionOverlayRenderer;
+
 public interface CameraCallback {
-    void onMotionDetected();
+    void onMotionDetected(Motion motion);
+    void onZoneMotionDetected(String zone);
     void onTooDark();
+    void onLightingChanged();
+    void onMotionOverlay(MotionOverlayRenderer overlay, int rotation);
     void onFaceDetected();
     void onQRCode(String data);
     void onCameraError();
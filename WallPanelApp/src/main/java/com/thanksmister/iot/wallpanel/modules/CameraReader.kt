@@ -17,12 +17,9 @@
 package com.thanksmister.iot.wallpanel.modules
 
 import android.annotation.SuppressLint
-import androidx.lifecycle.LiveData
-import androidx.lifecycle.MutableLiveData
 import android.content.Context
 import android.graphics.*
 import android.hardware.Camera
-import android.os.AsyncTask
 import android.view.Surface
 import android.view.WindowManager
 import com.google.android.gms.vision.*
@@ -31,11 +28,25 @@ import com.google.android.gms.vision.barcode.BarcodeDetector
 import com.google.android.gms.vision.face.Face
 import com.google.android.gms.vision.face.FaceDetector
 import com.google.android.gms.vision.face.LargestFaceFocusingProcessor
+import com.jjoe64.motiondetection.motiondetection.DetectorSchedule
+import com.jjoe64.motiondetection.motiondetection.FrameBufferPool
+import com.jjoe64.motiondetection.motiondetection.FrameCrop
+import com.jjoe64.motiondetection.motiondetection.FrameEncoder
+import com.jjoe64.motiondetection.motiondetection.FrameHub
+import com.jjoe64.motiondetection.motiondetection.FrameOutputStream
+import com.jjoe64.motiondetection.motiondetection.FrameWorker
+import com.jjoe64.motiondetection.motiondetection.MotionGate
+import com.jjoe64.motiondetection.motiondetection.PipelineMetrics
+import com.jjoe64.motiondetection.motiondetection.YuvRotator
 import com.thanksmister.iot.wallpanel.persistence.Configuration
 import com.thanksmister.iot.wallpanel.ui.views.CameraSourcePreview
+import com.thanksmister.iot.wallpanel.utils.RenderScriptBitmapConverter
+import com.thanksmister.iot.wallpanel.utils.YuvBitmapConverter
+import com.thanksmister.iot.wallpanel.utils.YuvImageFrameEncoder
 
 import timber.log.Timber
 import java.io.ByteArrayOutputStream
+import java.io.File
 import java.lang.ref.WeakReference
 import javax.inject.Inject
 import android.graphics.Bitmap
@@ -58,25 +69,90 @@ constructor(private val context: Context) {
     private var barCodeDetectorProcessor: MultiProcessor<Barcode>? = null
     private var motionDetectorProcessor: MultiProcessor<Motion>? = null
     private var streamDetectorProcessor: MultiProcessor<Stream>? = null
-    private val byteArray = MutableLiveData<ByteArray>()
-    private var bitmapComplete = true;
-    private var byteArrayCreateTask: ByteArrayTask? = null
+    // JPEG buffers of the stream, written on the stream worker and given back by the hub
+    private val frameStream = FrameOutputStream(JPEG_BUFFER_SIZE)
+    // Encoded stream frames, shared by every client of the MJPEG stream
+    private val frameHub = FrameHub(frameStream)
+    // Encodes the latest stream frame on its own thread, from camera start to stop
+    private var streamWorker: FrameWorker<Stream>? = null
+    private var streamBufferPool: FrameBufferPool? = null
+    // Each detector at its own rate, see ScheduledDetector
+    private val scheduledDetectors = ArrayList<ScheduledDetector<*>>()
+    // Face and QR code detection only run while open, when motion wakes them
+    private var motionGate: MotionGate? = null
     private var cameraOrientation: Int = 0
     private var cameraPreview: CameraSourcePreview? = null
+    // Encodes upright NV21 stream frames to JPEG without a Bitmap
+    private val frameEncoder: FrameEncoder = YuvImageFrameEncoder()
+    // Encodes on the stream worker, holds the RenderScript converter once a frame needed it
+    private var streamEncoder: StreamEncoder? = null
+    // Software conversion for devices where RenderScript cannot be created
+    private val yuvBitmapConverter = YuvBitmapConverter()
+    // Turns stream frames upright before they are converted, see StreamEncoder
+    private val yuvRotator = YuvRotator()
+    private var motionOverlayMode = MotionDetector.OVERLAY_NONE
+
+    /**
+     * Encoded frames of the MJPEG stream. A frame is only encoded while some client of the hub
+     * waits for one, so the encoder idles while nobody watches the stream and otherwise keeps
+     * pace with the fastest client.
+     */
+    fun getFrameHub(): FrameHub {
+        return frameHub
+    }
+
+    /**
+     * Stream frames dropped since the camera started, either replaced while waiting for the
+     * encoder or copied too late because every buffer was still in use.
+     */
+    fun getDroppedStreamFrames(): Long {
+        return (streamWorker?.dropped ?: 0) + (streamBufferPool?.exhausted ?: 0)
+    }
+
+    /**
+     * Target and achieved rate of every detector since the camera started.
+     */
+    fun getDetectorSchedules(): Map<String, DetectorSchedule> {
+        val schedules = LinkedHashMap<String, DetectorSchedule>()
+        synchronized(scheduledDetectors) {
+            for (detector in scheduledDetectors) {
+                schedules[detector.name] = detector.schedule
+            }
+        }
+        return schedules
+    }
 
-    fun getJpeg(): LiveData<ByteArray> {
-        return byteArray
+    /**
+     * Gate motion opens for face and QR code detection, null when they run all the time.
+     */
+    fun getMotionGate(): MotionGate? {
+        return motionGate
     }
 
-    private fun setJpeg(value: ByteArray) {
-        this.byteArray.value = value
+    /**
+     * Draw a motion debug overlay from every frame, passed on to [CameraCallback.onMotionOverlay].
+     */
+    fun setMotionOverlay(mode: Int) {
+        motionOverlayMode = mode
+        motionDetector?.overlayMode = mode
     }
 
     fun stopCamera() {
 
-        if (byteArrayCreateTask != null) {
-            byteArrayCreateTask!!.cancel(true)
-            byteArrayCreateTask = null
+        if (streamWorker != null) {
+            // waits for a frame being encoded, the converters below are released after it
+            if (!streamWorker!!.stop()) {
+                Timber.w("Stream encoder still busy after ${FrameWorker.STOP_TIMEOUT_MILLIS}ms")
+            }
+            Timber.d("Stream frames encoded ${streamWorker!!.handled}, dropped ${getDroppedStreamFrames()}, " +
+                    "failed ${streamWorker!!.failed}")
+            streamWorker = null
+            streamBufferPool = null
+        }
+
+        if (streamEncoder != null) {
+            streamEncoder!!.release()
+            streamEncoder = null
         }
 
         if (cameraSource != null) {
@@ -84,6 +160,19 @@ constructor(private val context: Context) {
             cameraSource = null
         }
 
+        synchronized(scheduledDetectors) {
+            for (detector in scheduledDetectors) {
+                Timber.d(detector.toString())
+            }
+            scheduledDetectors.clear()
+        }
+
+        if (motionGate != null) {
+            Timber.d("Motion woke face and QR code detection ${motionGate!!.openings} times, " +
+                    "for ${motionGate!!.getOpenTime(System.nanoTime()) / 1000000000L}s")
+            motionGate = null
+        }
+
         if (faceDetector != null) {
             faceDetector!!.release()
             faceDetector = null
@@ -128,6 +217,10 @@ constructor(private val context: Context) {
             streamDetectorProcessor!!.release()
             streamDetectorProcessor = null
         }
+
+        yuvBitmapConverter.release()
+        frameHub.clear()
+        motionOverlayMode = MotionDetector.OVERLAY_NONE
     }
 
     @SuppressLint("MissingPermission")
@@ -286,51 +379,81 @@ constructor(private val context: Context) {
         var detectorAdded = false
 
         if(configuration.cameraEnabled && configuration.httpMJPEGEnabled) {
-            val renderScript = RenderScript.create(this.context)
-            streamDetector = StreamingDetector.Builder().build()
+            // a new pool for every start, buffers still out when the camera stops are left behind
+            val bufferPool = FrameBufferPool(STREAM_BUFFERS)
+            val encoder = StreamEncoder(context, frameEncoder, yuvBitmapConverter, yuvRotator, frameStream, frameHub,
+                    bufferPool, cameraOrientation, configuration.cameraRotate)
+            val worker = FrameWorker<Stream>("stream-encoder", encoder)
+            worker.start()
+            streamEncoder = encoder
+            streamWorker = worker
+            streamBufferPool = bufferPool
+            streamDetector = StreamingDetector.Builder()
+                    .setBufferPool(bufferPool)
+                    .build()
             streamDetectorProcessor = MultiProcessor.Builder<Stream>(MultiProcessor.Factory<Stream> {
                 object : Tracker<Stream>() {
                     override fun onUpdate(p0: Detector.Detections<Stream>?, stream: Stream?) {
                         super.onUpdate(p0, stream)
-                        if (stream?.byteArray != null && bitmapComplete) {
-                            byteArrayCreateTask = ByteArrayTask(context, renderScript, object : OnCompleteListener {
-                                override fun onComplete(byteArray: ByteArray?) {
-                                    bitmapComplete = true
-                                    setJpeg(byteArray!!)
-                                }
-                            })
-                            bitmapComplete = false
-                            byteArrayCreateTask!!.execute(stream.byteArray, stream.width, stream.height, cameraOrientation, configuration.cameraRotate)
+                        if (stream?.byteArray != null) {
+                            // a frame still waiting for the encoder is replaced by this newer one
+                            worker.offer(stream)
                         }
                     }
                 }
             }).build()
 
-            streamDetector!!.setProcessor(streamDetectorProcessor)
-            multiDetectorBuilder.add(streamDetector)
+            // frames for the stream are only taken while a client waits for one
+            addScheduled(multiDetectorBuilder, "stream", streamDetector!!, streamDetectorProcessor!!, 0f) { frameHub.hasDemand() }
             detectorAdded = true
         }
 
+        // without motion detection nothing would open the gate
+        val gate = if (configuration.cameraEnabled && configuration.cameraMotionEnabled && configuration.cameraMotionCascade) {
+            MotionGate(configuration.cameraMotionCascadeWindow * 1000L)
+        } else {
+            null
+        }
+        motionGate = gate
+        val isWoken = { gate?.isOpen(System.nanoTime()) ?: true }
+
         if(configuration.cameraEnabled && configuration.cameraMotionEnabled) {
-            motionDetector = MotionDetector.Builder(configuration.cameraMotionMinLuma, configuration.cameraMotionLeniency).build()
+            motionDetector = MotionDetector.Builder(configuration.cameraMotionMinLuma, configuration.cameraMotionLeniency)
+                    .setDecimation(configuration.cameraMotionDecimation)
+                    .setEngine(configuration.cameraMotionEngine)
+                    .setLightingCompensation(configuration.cameraMotionLighting)
+                    .setZones(configuration.cameraMotionZones)
+                    .setFrameLog(if (configuration.cameraMotionRecord) File(context.getExternalFilesDir(null) ?: context.filesDir, MotionDetector.FRAME_LOG_FILE) else null)
+                    .build()
+            motionDetector!!.overlayMode = motionOverlayMode
             motionDetectorProcessor = MultiProcessor.Builder<Motion>(MultiProcessor.Factory<Motion> {
                 object : Tracker<Motion>() {
                     override fun onUpdate(p0: Detector.Detections<Motion>?, motion: Motion?) {
                         super.onUpdate(p0, motion)
+                        if (Motion.MOTION_DETECTED == motion?.type) {
+                            gate?.motion(motion!!.timestamp)
+                        }
                         if (cameraCallback != null && configuration.cameraMotionEnabled) {
+                            if (motion?.overlay != null) {
+                                cameraCallback!!.onMotionOverlay(motion.overlay!!, motion.rotation)
+                            }
                             if (Motion.MOTION_TOO_DARK == motion?.type) {
                                 cameraCallback!!.onTooDark()
                             } else if (Motion.MOTION_DETECTED == motion?.type) {
                                 Timber.d("motionDetected")
-                                cameraCallback!!.onMotionDetected()
+                                cameraCallback!!.onMotionDetected(motion!!)
+                                motion?.zones?.forEach { zone ->
+                                    cameraCallback!!.onZoneMotionDetected(zone)
+                                }
+                            } else if (Motion.MOTION_LIGHTING_CHANGE == motion?.type) {
+                                cameraCallback!!.onLightingChanged()
                             }
                         }
                     }
                 }
             }).build()
 
-            motionDetector!!.setProcessor(motionDetectorProcessor)
-            multiDetectorBuilder.add(motionDetector)
+            addScheduled(multiDetectorBuilder, "motion", motionDetector!!, motionDetectorProcessor!!, configuration.cameraMotionFPS)
             detectorAdded = true
         }
 
@@ -347,6 +470,7 @@ constructor(private val context: Context) {
                 override fun onUpdate(detections: Detector.Detections<Face>, face: Face) {
                     super.onUpdate(detections, face)
                     if (detections.detectedItems.size() > 0) {
+                        gate?.detected("face", System.nanoTime())
                         if (cameraCallback != null && configuration.cameraFaceEnabled) {
                             Timber.d("faceDetected")
                             cameraCallback!!.onFaceDetected()
@@ -355,8 +479,9 @@ constructor(private val context: Context) {
                 }
             })
 
-            faceDetector!!.setProcessor(faceDetectorProcessor)
-            multiDetectorBuilder.add(faceDetector)
+            // faces are only counted and focused by id, so they are not moved back onto the full frame
+            val faceInput = CroppedDetector("face", faceDetector!!, FrameCrop.center(1f, configuration.cameraFaceResolution))
+            addScheduled(multiDetectorBuilder, "face", faceInput, faceDetectorProcessor!!, configuration.cameraFaceFPS, isWoken)
             detectorAdded = true
         }
 
@@ -369,6 +494,7 @@ constructor(private val context: Context) {
                 object : Tracker<Barcode>() {
                     override fun onUpdate(p0: Detector.Detections<Barcode>?, p1: Barcode?) {
                         super.onUpdate(p0, p1)
+                        gate?.detected("qrcode", System.nanoTime())
                         if (cameraCallback != null && configuration.cameraQRCodeEnabled) {
                             Timber.d("Barcode: " + p1?.displayValue)
                             cameraCallback!!.onQRCode(p1?.displayValue)
@@ -377,8 +503,9 @@ constructor(private val context: Context) {
                 }
             }).build()
 
-            barcodeDetector!!.setProcessor(barCodeDetectorProcessor);
-            multiDetectorBuilder.add(barcodeDetector)
+            val barcodeInput = CroppedDetector("qrcode", barcodeDetector!!,
+                    FrameCrop.center(configuration.cameraQRCodeCrop, configuration.cameraQRCodeResolution), CroppedDetector.BARCODE)
+            addScheduled(multiDetectorBuilder, "qrcode", barcodeInput, barCodeDetectorProcessor!!, configuration.cameraQRCodeFPS, isWoken)
             detectorAdded = true
         }
 
@@ -391,6 +518,20 @@ constructor(private val context: Context) {
         }
     }
     
+    /**
+     * Add a detector to the MultiDetector behind a [ScheduledDetector], which then gets the
+     * processor, so the detector runs at [fps] and only while [isWanted].
+     */
+    private fun <T> addScheduled(builder: MultiDetector.Builder, name: String, detector: Detector<T>, processor: Detector.Processor<T>,
+                                 fps: Float, isWanted: () -> Boolean = { true }) {
+        val scheduled = ScheduledDetector(name, detector, DetectorSchedule(fps), isWanted)
+        scheduled.setProcessor(processor)
+        synchronized(scheduledDetectors) {
+            scheduledDetectors.add(scheduled)
+        }
+        builder.add(scheduled)
+    }
+
     @SuppressLint("MissingPermission")
     private fun initCamera(camerId: Int, fsp: Float): CameraSource {
         Timber.d("initCamera camerId $camerId")
@@ -403,27 +544,52 @@ constructor(private val context: Context) {
                 .build()
     }
 
-    interface OnCompleteListener {
-        fun onComplete(byteArray: ByteArray?)
-    }
-
-    class ByteArrayTask(context: Context, private val renderScript: RenderScript?, private val onCompleteListener: OnCompleteListener) : AsyncTask<Any, Void, ByteArray>() {
+    /**
+     * Turns a stream frame upright, encodes it to JPEG and publishes it to the frame hub, on the
+     * stream worker's thread. Quarter turns are done on the NV21 frame, which then goes to the
+     * encoder as it is. Only other rotations, or odd frame sizes, take the way through a Bitmap,
+     * and only then is a RenderScript converter created, falling back to software conversion
+     * where RenderScript is not available. Every frame's buffer goes back to the pool, whether it
+     * was encoded or dropped.
+     */
+    class StreamEncoder(context: Context, private val frameEncoder: FrameEncoder,
+                        private val yuvBitmapConverter: YuvBitmapConverter, private val yuvRotator: YuvRotator,
+                        private val stream: FrameOutputStream, private val frameHub: FrameHub,
+                        private val bufferPool: FrameBufferPool, private val orientation: Int, private val rotation: Float) : FrameWorker.Handler<Stream> {
 
         private val contextRef: WeakReference<Context> = WeakReference(context)
-
-        override fun doInBackground(vararg params: kotlin.Any): ByteArray? {
-            if (isCancelled) {
-                return null
+        // created on the worker thread, released from the camera thread
+        private var renderScriptConverter: RenderScriptBitmapConverter? = null
+        private var renderScriptUnavailable = false
+
+        override fun handle(frame: Stream) {
+            PipelineMetrics.record(PipelineMetrics.STREAM_WAIT, frame.timestamp)
+            val byteArray = frame.byteArray!!
+            try {
+                // the buffer goes to the hub as it is, and comes back once no client holds it
+                stream.reset()
+                encode(byteArray, frame.width!!, frame.height!!, stream)
+                stream.publishTo(frameHub, frame.timestamp)
+            } catch (e: Exception) {
+                Timber.e("Could not encode stream frame: ${e.message}")
+            } finally {
+                bufferPool.release(byteArray)
             }
-            val byteArray = params[0] as ByteArray
-            val width = params[1] as Int
-            val height = params[2] as Int
-            val orientation = params[3] as Int
-            val rotation = params[4] as Float
+        }
 
-            val windowService = contextRef.get()!!.getSystemService(Context.WINDOW_SERVICE) as WindowManager
+        override fun fail(frame: Stream, e: RuntimeException) {
+            // the buffer already went back in handle
+            Timber.e(e, "Stream encoder failed on a frame")
+        }
+
+        override fun drop(frame: Stream) {
+            bufferPool.release(frame.byteArray!!)
+        }
+
+        private fun encode(byteArray: ByteArray, width: Int, height: Int, stream: ByteArrayOutputStream) {
+            val context = contextRef.get() ?: return
+            val windowService = context.getSystemService(Context.WINDOW_SERVICE) as WindowManager
             val currentRotation = windowService.defaultDisplay.rotation
-            val nv21Bitmap = nv21ToBitmap(renderScript, byteArray, width, height)
             var rotate = orientation
 
             when (currentRotation) {
@@ -441,48 +607,81 @@ constructor(private val context: Context) {
             rotate %= 360
             rotate += rotation.toInt()
 
-            val matrix = Matrix()
-            matrix.postRotate(rotate.toFloat())
-            val bitmap =  Bitmap.createBitmap(nv21Bitmap, 0, 0, width, height, matrix, true)
-            val stream = ByteArrayOutputStream()
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 80, stream)
-            val byteArrayOut = stream.toByteArray()
-            bitmap.recycle()
+            if (rotate % 90 == 0 && width % 2 == 0 && height % 2 == 0) {
+                var frame = byteArray
+                var frameWidth = width
+                var frameHeight = height
+                if (YuvRotator.normalize(rotate) != 0) {
+                    val start = System.nanoTime()
+                    frame = yuvRotator.rotate(byteArray, width, height, rotate, false)
+                    frameWidth = yuvRotator.width
+                    frameHeight = yuvRotator.height
+                    PipelineMetrics.record(PipelineMetrics.ROTATE, start)
+                }
+                val start = System.nanoTime()
+                frameEncoder.encode(frame, frameWidth, frameHeight, JPEG_QUALITY, stream)
+                PipelineMetrics.record(PipelineMetrics.ENCODE, start)
+            } else {
+                var start = System.nanoTime()
+                val nv21Bitmap = nv21ToBitmap(context, byteArray, width, height)
+                PipelineMetrics.record(PipelineMetrics.CONVERT, start)
+                var bitmap = nv21Bitmap
+                if (rotate != 0) {
+                    val matrix = Matrix()
+                    matrix.postRotate(rotate.toFloat())
+                    start = System.nanoTime()
+                    bitmap = Bitmap.createBitmap(nv21Bitmap, 0, 0, width, height, matrix, true)
+                    PipelineMetrics.record(PipelineMetrics.ROTATE, start)
+                }
+                start = System.nanoTime()
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream)
+                PipelineMetrics.record(PipelineMetrics.ENCODE, start)
+                // the converters keep their Bitmap for the next frame
+                if (bitmap !== nv21Bitmap) {
+                    bitmap.recycle()
+                }
+            }
+        }
 
-            return byteArrayOut
+        private fun nv21ToBitmap(context: Context, yuvByteArray: ByteArray, width: Int, height: Int): Bitmap {
+            // the RenderScript converter gives null once the camera has stopped
+            return renderScript(context)?.convert(yuvByteArray, width, height)
+                    ?: yuvBitmapConverter.convert(yuvByteArray, width, height)
         }
 
-        override fun onPostExecute(result: ByteArray?) {
-            super.onPostExecute(result)
-            if (isCancelled) {
-                return
+        @Synchronized
+        private fun renderScript(context: Context): RenderScriptBitmapConverter? {
+            if (renderScriptConverter == null && !renderScriptUnavailable) {
+                try {
+                    renderScriptConverter = RenderScriptBitmapConverter(context)
+                } catch (e: RSRuntimeException) {
+                    Timber.w("RenderScript not available, converting frames in software: ${e.message}")
+                    renderScriptUnavailable = true
+                }
             }
-            onCompleteListener.onComplete(result)
+            return renderScriptConverter
         }
 
-        private fun nv21ToBitmap(rs: RenderScript?, yuvByteArray: ByteArray, width: Int, height: Int): Bitmap {
-
-            val yuvToRgbIntrinsic = ScriptIntrinsicYuvToRGB.create(rs, Element.U8_4(rs))
-
-            val yuvType = Type.Builder(rs, Element.U8(rs)).setX(yuvByteArray.size)
-            val allocationIn = Allocation.createTyped(rs, yuvType.create(), Allocation.USAGE_SCRIPT)
-
-            val rgbaType = Type.Builder(rs, Element.RGBA_8888(rs)).setX(width).setY(height)
-            val allocationOut = Allocation.createTyped(rs, rgbaType.create(), Allocation.USAGE_SCRIPT)
-
-            allocationIn.copyFrom(yuvByteArray)
-
-            yuvToRgbIntrinsic.setInput(allocationIn)
-            yuvToRgbIntrinsic.forEach(allocationOut)
-
-            val bmpout = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-            allocationOut.copyTo(bmpout)
+        /**
+         * Free the RenderScript converter, if a frame ever needed one. Frames still coming in
+         * are converted in software.
+         */
+        @Synchronized
+        fun release() {
+            renderScriptConverter?.release()
+            renderScriptConverter = null
+            renderScriptUnavailable = true
+        }
 
-            return bmpout
+        companion object {
+            const val JPEG_QUALITY = 80
         }
     }
 
     companion object {
-
+        // one frame being encoded, one waiting for the encoder and one being copied
+        const val STREAM_BUFFERS = 3
+        // a 640x480 JPEG at the stream quality, buffers grow for larger frames
+        const val JPEG_BUFFER_SIZE = 64 * 1024
     }
 }
\ No newline at end of file
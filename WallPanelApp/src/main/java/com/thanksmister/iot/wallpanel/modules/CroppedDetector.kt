@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.modules
+
+import android.graphics.ImageFormat
+import android.util.SparseArray
+
+import com.google.android.gms.vision.Detector
+import com.google.android.gms.vision.Frame
+import com.google.android.gms.vision.barcode.Barcode
+import com.jjoe64.motiondetection.motiondetection.FrameCrop
+import com.jjoe64.motiondetection.motiondetection.PipelineMetrics
+import java.nio.ByteBuffer
+
+/**
+ * Hands [detector] the part of each frame [crop] cuts out, shrunk to the resolution it needs,
+ * instead of the whole frame. [remap] moves what was found back onto the full frame, given the
+ * quarter turns of the frame, so processors see the same coordinates as without the crop.
+ * Making the crop is timed as the stage "crop.[name]" in [PipelineMetrics].
+ */
+class CroppedDetector<T>(private val name: String, private val detector: Detector<T>, private val crop: FrameCrop,
+                         private val remap: ((T, FrameCrop, Int) -> Unit)? = null) : Detector<T>() {
+
+    private val stage = PipelineMetrics.stage(PipelineMetrics.CROP + name)
+    private var bytes: ByteArray? = null
+    private var buffer: ByteBuffer? = null
+
+    override fun detect(frame: Frame): SparseArray<T> {
+        val data = frame.grayscaleImageData
+        if (crop.isIdentity || data == null || !data.hasArray()) {
+            return detector.detect(frame)
+        }
+
+        val start = System.nanoTime()
+        val metadata = frame.metadata
+        val cropped = crop.apply(data.array(), data.arrayOffset(), metadata.width, metadata.height)
+        if (cropped !== bytes) {
+            bytes = cropped
+            buffer = ByteBuffer.wrap(cropped)
+        }
+        val croppedFrame = Frame.Builder()
+                .setImageData(buffer, crop.width, crop.height, ImageFormat.NV21)
+                .setId(metadata.id)
+                .setTimestampMillis(metadata.timestampMillis)
+                .setRotation(metadata.rotation)
+                .build()
+        stage.record(System.nanoTime() - start)
+
+        val detections = detector.detect(croppedFrame)
+        if (remap != null) {
+            for (i in 0 until detections.size()) {
+                remap.invoke(detections.valueAt(i), crop, metadata.rotation)
+            }
+        }
+        return detections
+    }
+
+    override fun isOperational(): Boolean {
+        return detector.isOperational
+    }
+
+    override fun setFocus(id: Int): Boolean {
+        return detector.setFocus(id)
+    }
+
+    companion object {
+
+        /**
+         * Moves the corners of a barcode, from which its bounding box is also taken.
+         */
+        val BARCODE: (Barcode, FrameCrop, Int) -> Unit = { barcode, crop, rotation ->
+            val point = FloatArray(2)
+            barcode.cornerPoints?.forEach { corner ->
+                point[0] = corner.x.toFloat()
+                point[1] = corner.y.toFloat()
+                crop.map(point, rotation)
+                corner.set(Math.round(point[0]), Math.round(point[1]))
+            }
+        }
+    }
+}
@@ -16,19 +16,40 @@
 
 package com.thanksmister.iot.wallpanel.modules
 
+import android.graphics.Rect
+import com.thanksmister.iot.wallpanel.utils.MotionOverlayRenderer
+
 /**
  * Created by Michael Ritchie on 7/6/18.
+ *
+ * When motion is detected [boundingBox] and the centroid locate it in the frame, in pixels,
+ * [areaFraction] is the part of the watched image that changed and [magnitude] the mean
+ * change in luma of the changed boxes.
+ *
+ * [timestamp] is the [System.nanoTime] the frame was captured at, see PipelineMetrics.
+ *
+ * With the debug overlay on every frame carries the [overlay] renderer, to take the newest
+ * drawing of what the engine saw from, turned by [rotation] quarter turns to match the screen.
  */
 class Motion {
 
     var type = MOTION_NOT_DETECTED
-    var byteArray: ByteArray? = null
     var width: Int? = null
     var height: Int? = null
+    var zones: List<String>? = null
+    var boundingBox: Rect? = null
+    var centroidX: Int = 0
+    var centroidY: Int = 0
+    var areaFraction: Float = 0f
+    var magnitude: Int = 0
+    var overlay: MotionOverlayRenderer? = null
+    var rotation: Int = 0
+    var timestamp: Long = 0
 
     companion object {
         val MOTION_TOO_DARK = "motion_too_dark"
         val MOTION_DETECTED = "motion_detected"
         val MOTION_NOT_DETECTED = "motion_not_detected"
+        val MOTION_LIGHTING_CHANGE = "motion_lighting_change"
     }
 }
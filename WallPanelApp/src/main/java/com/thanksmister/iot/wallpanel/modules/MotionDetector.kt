@@ -16,28 +16,131 @@
 
 package com.thanksmister.iot.wallpanel.modules
 
+import android.graphics.Rect
 import android.util.SparseArray
 
 import com.google.android.gms.vision.Detector
 import com.google.android.gms.vision.Frame
 import com.jjoe64.motiondetection.motiondetection.AggregateLumaMotionDetection
-import com.jjoe64.motiondetection.motiondetection.ImageProcessing
+import com.jjoe64.motiondetection.motiondetection.BackgroundMotionDetection
+import com.jjoe64.motiondetection.motiondetection.FrameLog
+import com.jjoe64.motiondetection.motiondetection.FrameLogWriter
+import com.jjoe64.motiondetection.motiondetection.IYuvMotionDetection
+import com.jjoe64.motiondetection.motiondetection.MotionZones
+import com.jjoe64.motiondetection.motiondetection.PipelineMetrics
 import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_DETECTED
+import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_LIGHTING_CHANGE
 import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_NOT_DETECTED
 import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_TOO_DARK
+import com.thanksmister.iot.wallpanel.utils.MotionOverlayRenderer
 
 import timber.log.Timber
+import java.io.File
+import java.io.IOException
 
 /**
  * Created by Michael Ritchie on 7/6/18.
+ *
+ * Each detector owns its motion engine and buffers, so several can run side by side
+ * (for example the service and the camera test preview). A single detector is fed frames
+ * from one camera thread and is not safe to share between threads.
+ *
+ * [ENGINE_FRAME_DIFFERENCE] compares each frame with the one before it, [ENGINE_BACKGROUND]
+ * compares it with a learned background and ignores boxes that always flicker.
+ *
+ * With zones set only the boxes inside a zone are read, and a detected [Motion] lists the
+ * zones it was seen in.
+ *
+ * With a frame log set the Y plane of every frame is recorded, up to [FRAME_LOG_BYTES], so a
+ * capture can be replayed through the same engine off the device with MotionReplay.
+ *
+ * With an [overlayMode] set every frame is also drawn for the camera test screen, see
+ * [MotionOverlayRenderer].
  */
-class MotionDetector private constructor(private val minLuma: Int, private val motionLeniency: Int) : Detector<Motion>() {
+class MotionDetector private constructor(private val minLuma: Int, private val motionLeniency: Int,
+                                         private val decimation: Int, private val engine: Int,
+                                         private val lightingCompensation: Boolean, zones: String,
+                                         frameLog: File?) : Detector<Motion>() {
 
-    private var aggregateLumaMotionDetection: AggregateLumaMotionDetection? = null
+    private var motionDetection: IYuvMotionDetection? = null
+    private var motionZones: MotionZones? = null
+    private var frameLogWriter: FrameLogWriter? = null
+    private var overlayRenderer: MotionOverlayRenderer? = null
+
+    /**
+     * Debug overlay to draw, [OVERLAY_NONE], [OVERLAY_LUMA] or [OVERLAY_DIFFERENCE]. May be
+     * changed from any thread, it applies from the next frame.
+     */
+    @Volatile
+    var overlayMode = OVERLAY_NONE
 
     init {
-        aggregateLumaMotionDetection = AggregateLumaMotionDetection()
-        aggregateLumaMotionDetection!!.setLeniency(motionLeniency)
+        try {
+            motionZones = MotionZones.parse(zones, ZONE_BOXES, ZONE_BOXES)
+        } catch (e: IllegalArgumentException) {
+            Timber.e("Ignoring motion zones: ${e.message}")
+        }
+        if (engine == ENGINE_BACKGROUND) {
+            val backgroundMotionDetection = BackgroundMotionDetection()
+            backgroundMotionDetection.setLeniency(motionLeniency)
+            backgroundMotionDetection.setMinLuma(minLuma)
+            backgroundMotionDetection.setDecimation(decimation)
+            backgroundMotionDetection.setLightingCompensation(lightingCompensation)
+            backgroundMotionDetection.setZones(motionZones)
+            // only frames above the parallel threshold, larger than 640x480, are split
+            backgroundMotionDetection.setParallel(true)
+            motionDetection = backgroundMotionDetection
+        } else {
+            val aggregateLumaMotionDetection = AggregateLumaMotionDetection()
+            aggregateLumaMotionDetection.setLeniency(motionLeniency)
+            aggregateLumaMotionDetection.setComparerMode(AggregateLumaMotionDetection.COMPARER_INTEGRAL)
+            aggregateLumaMotionDetection.setMinLuma(minLuma)
+            aggregateLumaMotionDetection.setDecimation(decimation)
+            aggregateLumaMotionDetection.setLightingCompensation(lightingCompensation)
+            aggregateLumaMotionDetection.setZones(motionZones)
+            aggregateLumaMotionDetection.setParallel(true)
+            motionDetection = aggregateLumaMotionDetection
+        }
+        if (frameLog != null) {
+            try {
+                frameLogWriter = FrameLogWriter(frameLog)
+                Timber.d("Recording motion frames to ${frameLog.absolutePath}")
+            } catch (e: IOException) {
+                Timber.e("Cannot record motion frames: ${e.message}")
+            }
+        }
+    }
+
+    // release comes from the main thread while frames arrive on the camera thread
+    @Synchronized
+    private fun recordFrame(frame: Frame) {
+        val writer = frameLogWriter ?: return
+        try {
+            writer.write(FrameLog.FORMAT_Y, frame.metadata.width, frame.metadata.height,
+                    frame.metadata.timestampMillis, FrameLog.LABEL_UNKNOWN, frame.grayscaleImageData)
+            if (writer.bytes >= FRAME_LOG_BYTES) {
+                Timber.d("Motion frame log full after ${writer.frames} frames")
+                closeFrameLog()
+            }
+        } catch (e: IOException) {
+            Timber.e("Stopped recording motion frames: ${e.message}")
+            closeFrameLog()
+        }
+    }
+
+    @Synchronized
+    private fun closeFrameLog() {
+        try {
+            frameLogWriter?.close()
+        } catch (e: IOException) {
+            Timber.e(e.message)
+        }
+        frameLogWriter = null
+    }
+
+    override fun release() {
+        closeFrameLog()
+        super.release()
     }
 
     override fun detect(frame: Frame?): SparseArray<Motion> {
@@ -50,26 +153,32 @@ class MotionDetector private constructor(private val minLuma: Int, private val m
             val h = frame.metadata.height
             val sparseArray = SparseArray<Motion>()
             val motion = Motion()
-            motion.byteArray = bytes
+            motion.timestamp = PipelineMetrics.markCapture(frame.metadata.id.toLong())
             motion.width = w
             motion.height = h
-
-            val img = ImageProcessing.decodeYUV420SPtoLuma(bytes, w, h)
-            var lumaSum = 0
-            for (i in img) {
-                lumaSum += i
-            }
-            if (lumaSum < minLuma) {
-                motion.type = MOTION_TOO_DARK
-                sparseArray.put(0, motion)
-                return sparseArray
-            }
+            recordFrame(frame)
 
             try {
-                val motionDetected = aggregateLumaMotionDetection!!.detect(img, w, h)
-                if (motionDetected) {
+                // Reads the Y bytes directly; luma sum, box means and the too dark check share one pass
+                val start = System.nanoTime()
+                val motionDetected = motionDetection!!.detect(byteBuffer, w, h)
+                PipelineMetrics.record(PipelineMetrics.MOTION, start)
+                if (motionDetection!!.isTooDark) {
+                    motion.type = MOTION_TOO_DARK
+                } else if (motionDetected) {
                     motion.type = MOTION_DETECTED
+                    val region = motionDetection!!.motionRegion
+                    motion.boundingBox = Rect(region.left, region.top, region.right, region.bottom)
+                    motion.centroidX = region.centroidX
+                    motion.centroidY = region.centroidY
+                    motion.areaFraction = region.areaFraction
+                    motion.magnitude = region.magnitude
+                    if (motionZones != null) {
+                        motion.zones = motionZones!!.getNames(motionDetection!!.motionZones)
+                    }
                     //Timber.d("MOTION_DETECTED")
+                } else if (motionDetection!!.isLightingChange) {
+                    motion.type = MOTION_LIGHTING_CHANGE
                 } else {
                     motion.type = MOTION_NOT_DETECTED
                     //Timber.d("MOTION_NOT_DETECTED")
@@ -78,14 +187,85 @@ class MotionDetector private constructor(private val minLuma: Int, private val m
                 Timber.e(e.message)
                 motion.type = MOTION_NOT_DETECTED
             }
+            val mode = overlayMode
+            if (mode != OVERLAY_NONE) {
+                if (overlayRenderer == null) {
+                    overlayRenderer = MotionOverlayRenderer()
+                }
+                overlayRenderer!!.render(bytes, w, h, motionDetection, mode == OVERLAY_DIFFERENCE)
+                motion.overlay = overlayRenderer
+                motion.rotation = frame.metadata.rotation
+            } else {
+                overlayRenderer = null
+            }
             sparseArray.put(0, motion)
             return sparseArray
         }
     }
 
     class Builder(private val minLuma: Int, private val motionLeniency: Int) {
+        private var decimation = 1
+        private var engine = ENGINE_FRAME_DIFFERENCE
+        private var lightingCompensation = false
+        private var zones = ""
+        private var frameLog: File? = null
+
+        /**
+         * Look at every n-th pixel of every n-th row, 1 for full resolution.
+         */
+        fun setDecimation(decimation: Int): Builder {
+            this.decimation = decimation
+            return this
+        }
+
+        /**
+         * Select the motion engine, [ENGINE_FRAME_DIFFERENCE] or [ENGINE_BACKGROUND].
+         */
+        fun setEngine(engine: Int): Builder {
+            this.engine = engine
+            return this
+        }
+
+        /**
+         * Report changes in lighting across the whole frame as [MOTION_LIGHTING_CHANGE]
+         * instead of motion.
+         */
+        fun setLightingCompensation(lightingCompensation: Boolean): Builder {
+            this.lightingCompensation = lightingCompensation
+            return this
+        }
+
+        /**
+         * Only look for motion in the given zones, see [MotionZones] for the format. Zones
+         * which cannot be parsed are ignored and the whole image is watched.
+         */
+        fun setZones(zones: String): Builder {
+            this.zones = zones
+            return this
+        }
+
+        /**
+         * Record every frame to a frame log, replacing the file, or null to record nothing.
+         */
+        fun setFrameLog(frameLog: File?): Builder {
+            this.frameLog = frameLog
+            return this
+        }
+
         fun build(): MotionDetector {
-            return MotionDetector(minLuma, motionLeniency)
+            return MotionDetector(minLuma, motionLeniency, decimation, engine, lightingCompensation, zones, frameLog)
         }
     }
+
+    companion object {
+        const val ENGINE_FRAME_DIFFERENCE = 0
+        const val ENGINE_BACKGROUND = 1
+        // Zones are laid out on the default 10x10 grid of the motion engines
+        const val ZONE_BOXES = 10
+        const val FRAME_LOG_FILE = "motion.framelog"
+        const val OVERLAY_NONE = 0
+        const val OVERLAY_LUMA = 1
+        const val OVERLAY_DIFFERENCE = 2
+        const val FRAME_LOG_BYTES = 64L * 1024 * 1024
+    }
 }
\ No newline at end of file
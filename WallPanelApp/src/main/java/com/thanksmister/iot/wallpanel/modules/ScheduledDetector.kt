@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.modules
+
+import android.util.SparseArray
+
+import com.google.android.gms.vision.Detector
+import com.google.android.gms.vision.Frame
+import com.jjoe64.motiondetection.motiondetection.DetectorSchedule
+import com.jjoe64.motiondetection.motiondetection.PipelineMetrics
+
+/**
+ * Runs [detector] only on the frames [schedule] gives it, and only while [isWanted], so each
+ * detector in the MultiDetector keeps its own rate. Skipped frames never reach the detector or
+ * the processor, which must be set on this wrapper rather than on [detector]. Every run is timed
+ * as the stage "detector.[name]" in [PipelineMetrics].
+ */
+class ScheduledDetector<T>(val name: String, private val detector: Detector<T>,
+                           val schedule: DetectorSchedule, private val isWanted: () -> Boolean = { true }) : Detector<T>() {
+
+    private val stage = PipelineMetrics.stage(PipelineMetrics.DETECTOR + name)
+
+    override fun receiveFrame(frame: Frame) {
+        val now = PipelineMetrics.markCapture(frame.metadata.id.toLong())
+        if (!isWanted()) {
+            schedule.skip()
+        } else if (schedule.shouldRun(now)) {
+            super.receiveFrame(frame)
+        }
+    }
+
+    override fun detect(frame: Frame): SparseArray<T> {
+        val start = System.nanoTime()
+        val detections = detector.detect(frame)
+        stage.record(System.nanoTime() - start)
+        return detections
+    }
+
+    override fun isOperational(): Boolean {
+        return detector.isOperational
+    }
+
+    override fun setFocus(id: Int): Boolean {
+        return detector.setFocus(id)
+    }
+
+    override fun toString(): String {
+        return "$name: target ${schedule.targetRate} fps, achieved ${schedule.rate} fps, skipped ${schedule.skipped}"
+    }
+}
@@ -23,6 +23,8 @@ class Stream {
     var byteArray: ByteArray? = null
     var width: Int? = null
     var height: Int? = null
+    // System.nanoTime the frame was captured at, see PipelineMetrics
+    var timestamp: Long = 0
     companion object {
     }
 }
@@ -20,40 +20,57 @@ import android.util.SparseArray
 
 import com.google.android.gms.vision.Detector
 import com.google.android.gms.vision.Frame
-import com.jjoe64.motiondetection.motiondetection.AggregateLumaMotionDetection
-import com.jjoe64.motiondetection.motiondetection.ImageProcessing
-import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_DETECTED
-import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_NOT_DETECTED
-import com.thanksmister.iot.wallpanel.modules.Motion.Companion.MOTION_TOO_DARK
-
-import timber.log.Timber
+import com.jjoe64.motiondetection.motiondetection.FrameBufferPool
+import com.jjoe64.motiondetection.motiondetection.PipelineMetrics
 
 /**
  * Created by Michael Ritchie on 7/6/18.
+ *
+ * The camera reuses its buffer as soon as [detect] returns, so frames for the stream are copied
+ * into a buffer from [bufferPool], so it should only see frames somebody will take, see
+ * ScheduledDetector. Without a pool or a free buffer [Stream.byteArray] stays null and the frame
+ * is dropped. Whoever takes the frame gives the buffer back to the pool.
  */
-class StreamingDetector private constructor() : Detector<Stream>() {
-    init {
-    }
+class StreamingDetector private constructor(private val bufferPool: FrameBufferPool?) : Detector<Stream>() {
+
     override fun detect(frame: Frame?): SparseArray<Stream> {
         if (frame == null) {
             throw IllegalArgumentException("No frame supplied.")
         } else {
             val sparseArray = SparseArray<Stream>()
             val byteBuffer = frame.grayscaleImageData
-            val bytes = byteBuffer.array()
             val w = frame.metadata.width
             val h = frame.metadata.height
             val stream = Stream()
-            stream.byteArray = bytes
+            stream.timestamp = PipelineMetrics.markCapture(frame.metadata.id.toLong())
+            if (bufferPool != null) {
+                val size = Math.min(w * h * 3 / 2, byteBuffer.capacity())
+                val bytes = bufferPool.acquire(size)
+                if (bytes != null) {
+                    val start = System.nanoTime()
+                    System.arraycopy(byteBuffer.array(), byteBuffer.arrayOffset(), bytes, 0, size)
+                    PipelineMetrics.record(PipelineMetrics.STREAM_COPY, start)
+                    stream.byteArray = bytes
+                }
+            }
             stream.width = w
             stream.height = h
             sparseArray.put(0, stream)
             return sparseArray
         }
     }
+
     class Builder() {
+
+        private var bufferPool: FrameBufferPool? = null
+
+        fun setBufferPool(bufferPool: FrameBufferPool): Builder {
+            this.bufferPool = bufferPool
+            return this
+        }
+
         fun build(): StreamingDetector {
-            return StreamingDetector()
+            return StreamingDetector(bufferPool)
         }
     }
-}
\ No newline at end of file
+}
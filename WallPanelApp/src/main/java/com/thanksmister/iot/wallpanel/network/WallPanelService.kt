@@ -30,8 +30,11 @@ import android.net.wifi.WifiManager
 import android.os.*
 import androidx.core.content.ContextCompat
 import androidx.localbroadcastmanager.content.LocalBroadcastManager
+import com.jjoe64.motiondetection.motiondetection.FrameHub
+import com.jjoe64.motiondetection.motiondetection.PipelineMetrics
 import com.koushikdutta.async.AsyncServer
 import com.koushikdutta.async.ByteBufferList
+import com.koushikdutta.async.Util
 import com.koushikdutta.async.http.body.JSONObjectBody
 import com.koushikdutta.async.http.body.StringBody
 import com.koushikdutta.async.http.server.AsyncHttpServer
@@ -44,6 +47,7 @@ import com.thanksmister.iot.wallpanel.ui.activities.BrowserActivity.Companion.BR
 import com.thanksmister.iot.wallpanel.ui.activities.BrowserActivity.Companion.BROADCAST_ACTION_JS_EXEC
 import com.thanksmister.iot.wallpanel.ui.activities.BrowserActivity.Companion.BROADCAST_ACTION_LOAD_URL
 import com.thanksmister.iot.wallpanel.ui.activities.BrowserActivity.Companion.BROADCAST_ACTION_RELOAD_PAGE
+import com.thanksmister.iot.wallpanel.utils.MotionOverlayRenderer
 import com.thanksmister.iot.wallpanel.utils.MqttUtils
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_AUDIO
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_BRIGHTNESS
@@ -54,7 +58,9 @@ import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_RELAUNCH
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_RELOAD
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_SENSOR
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_SENSOR_FACE
+import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_SENSOR_LIGHTING
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_SENSOR_MOTION
+import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_SENSOR_MOTION_REGION
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_SENSOR_QR_CODE
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_SPEAK
 import com.thanksmister.iot.wallpanel.utils.MqttUtils.Companion.COMMAND_STATE
@@ -72,6 +78,7 @@ import timber.log.Timber
 import java.io.IOException
 import java.nio.ByteBuffer
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicBoolean
 import javax.inject.Inject
 
@@ -89,7 +96,11 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
     @Inject
     lateinit var screenUtils: ScreenUtils
 
-    private val mJpegSockets = ArrayList<AsyncHttpServerResponse>()
+    // MJPEG clients and their place in the camera's frame hub
+    private val mJpegSockets = ConcurrentHashMap<AsyncHttpServerResponse, FrameHub.Cursor>()
+    // created up front so /api/metrics lists them before the first client connects
+    private val socketWriteStage = PipelineMetrics.stage(PipelineMetrics.SOCKET_WRITE)
+    private val streamLatencyStage = PipelineMetrics.stage(PipelineMetrics.STREAM_LATENCY)
     private var partialWakeLock: PowerManager.WakeLock? = null
     private var wifiLock: WifiManager.WifiLock? = null
     private var keyguardLock: KeyguardManager.KeyguardLock? = null
@@ -101,14 +112,19 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
     private val appStateClearHandler = Handler()
     private val qrCodeClearHandler = Handler()
     private val faceClearHandler = Handler()
+    private val lightingClearHandler = Handler()
     private var textToSpeechModule: TextToSpeechModule? = null
     private var mqttModule: MQTTModule? = null
     private var connectionLiveData: ConnectionLiveData? = null
     private var hasNetwork = AtomicBoolean(true)
     private var motionDetected: Boolean = false
+    private var motionRegionPublished: Long = 0
+    // zones are set from the detector thread and cleared on the main thread
+    private val zoneMotionDetected: MutableSet<String> = Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
     private var appStatePublished: Boolean = false
     private var qrCodeRead: Boolean = false
     private var faceDetected: Boolean = false
+    private var lightingChanged: Boolean = false
     private val reconnectHandler = Handler()
     private var appLaunchUrl: String? = null
     private var localBroadCastManager: LocalBroadcastManager? = null
@@ -363,7 +379,9 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
     }
 
     private fun publishMessage(command: String, message: String) {
+        val start = System.nanoTime()
         mqttModule?.publish(command, message)
+        PipelineMetrics.record(PipelineMetrics.MQTT_PUBLISH, start)
     }
 
     private fun configureCamera() {
@@ -440,11 +458,15 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
                 Timber.i("GET Arrived (/api/state)")
                 response.send(state)
             }
+
+            httpServer?.addAction("GET", "/api/metrics") { request, response ->
+                Timber.i("GET Arrived (/api/metrics)")
+                response.send(metrics)
+            }
             Timber.i("Enabled REST Endpoints")
         }
 
         if (httpServer != null && configuration.httpMJPEGEnabled) {
-            startMJPEG()
             httpServer?.addAction("GET", "/camera/stream") { _, response ->
                 Timber.i("GET Arrived (/camera/stream)")
                 startMJPEG(response)
@@ -462,44 +484,23 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         }
     }
 
-    private fun startMJPEG() {
-        Timber.d("startMJPEG")
-        cameraReader?.let {
-            it.getJpeg().observe(this, Observer { jpeg ->
-                if (mJpegSockets.size > 0 && jpeg != null) {
-                    var i = 0
-                    while (i < mJpegSockets.size) {
-                        val s = mJpegSockets[i]
-                        val bb = ByteBufferList()
-                        if (s.isOpen) {
-                            bb.recycle()
-                            bb.add(ByteBuffer.wrap("--jpgboundary\r\nContent-Type: image/jpeg\r\n".toByteArray()))
-                            bb.add(ByteBuffer.wrap(("Content-Length: " + jpeg.size + "\r\n\r\n").toByteArray()))
-                            bb.add(ByteBuffer.wrap(jpeg))
-                            bb.add(ByteBuffer.wrap("\r\n".toByteArray()))
-                            s.write(bb)
-                        } else {
-                            mJpegSockets.removeAt(i)
-                            i--
-                            Timber.i("MJPEG Session Count is " + mJpegSockets.size)
-                        }
-                        i++
-                    }
-                }
-            })
-        }
-    }
-
     private fun stopMJPEG() {
         Timber.d("stopMJPEG Called")
-        cameraReader?.getJpeg()?.removeObservers(this)
+        for (cursor in mJpegSockets.values) {
+            cursor.close()
+        }
         mJpegSockets.clear()
         httpServer?.removeAction("GET", "/camera/stream")
     }
 
     private fun startMJPEG(response: AsyncHttpServerResponse) {
         Timber.d("startmJpeg Called")
-        if (mJpegSockets.size < configuration.httpMJPEGMaxStreams) {
+        val frameHub = cameraReader?.getFrameHub()
+        if (frameHub == null) {
+            Timber.i("Camera is not running, not starting MJPEG stream")
+            response.code(503)
+            response.send("Camera not available")
+        } else if (mJpegSockets.size < configuration.httpMJPEGMaxStreams) {
             Timber.i("Starting new MJPEG stream")
             response.headers.add("Cache-Control", "no-cache")
             response.headers.add("Connection", "close")
@@ -507,7 +508,9 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
             response.setContentType("multipart/x-mixed-replace; boundary=--jpgboundary")
             response.code(200)
             response.writeHead()
-            mJpegSockets.add(response)
+            response.setClosedCallback { stopMJPEG(response) }
+            // the new client waits for a frame, which makes the camera encode one
+            mJpegSockets[response] = frameHub.subscribe(FrameHub.Listener { cursor -> sendMJPEG(response, cursor) })
         } else {
             Timber.i("MJPEG stream limit was reached, not starting")
             response.send("Max streams exceeded")
@@ -516,6 +519,99 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         Timber.i("MJPEG Session Count is " + mJpegSockets.size)
     }
 
+    /**
+     * Send the newest frame to a client, then the next one as soon as it has gone out. Frames
+     * published while the client is still writing are skipped, and once it has seen the newest
+     * frame its cursor waits for the hub to call back.
+     */
+    private fun sendMJPEG(response: AsyncHttpServerResponse, cursor: FrameHub.Cursor) {
+        if (!response.isOpen) {
+            stopMJPEG(response)
+            return
+        }
+        val frame = cursor.poll() ?: return
+        val captured = frame.timestamp
+        val start = System.nanoTime()
+        val bb = ByteBufferList()
+        bb.add(ByteBuffer.wrap("--jpgboundary\r\nContent-Type: image/jpeg\r\n".toByteArray()))
+        bb.add(ByteBuffer.wrap(("Content-Length: " + frame.length + "\r\n\r\n").toByteArray()))
+        bb.add(ByteBuffer.wrap(frame.data, 0, frame.length))
+        bb.add(ByteBuffer.wrap("\r\n".toByteArray()))
+        Util.writeAll(response, bb) { ex ->
+            frame.release()
+            if (ex == null) {
+                val written = System.nanoTime()
+                socketWriteStage.record(written - start)
+                streamLatencyStage.record(written - captured)
+                sendMJPEG(response, cursor)
+            } else {
+                stopMJPEG(response)
+            }
+        }
+    }
+
+    private fun stopMJPEG(response: AsyncHttpServerResponse) {
+        val cursor = mJpegSockets.remove(response)
+        if (cursor != null) {
+            cursor.close()
+            Timber.i("MJPEG Session Count is " + mJpegSockets.size)
+        }
+    }
+
+    /**
+     * Latency of every stage of the camera pipeline in microseconds, with the passes per second
+     * since the app started, see [PipelineMetrics].
+     */
+    private val metrics: JSONObject
+        get() {
+            val stages = JSONObject()
+            try {
+                for ((name, stage) in PipelineMetrics.getStages()) {
+                    val histogram = stage.histogram
+                    val json = JSONObject()
+                    json.put("count", stage.count)
+                    json.put("rate", stage.rate)
+                    json.put("mean", histogram.mean)
+                    json.put("p50", histogram.getPercentile(50.0))
+                    json.put("p90", histogram.getPercentile(90.0))
+                    json.put("p99", histogram.getPercentile(99.0))
+                    json.put("max", histogram.max)
+                    stages.put(name, json)
+                }
+            } catch (e: JSONException) {
+                Timber.e(e.message)
+            }
+            val metrics = JSONObject()
+            try {
+                metrics.put("stages", stages)
+                cameraReader?.let {
+                    metrics.put("stream_dropped", it.getDroppedStreamFrames())
+                    metrics.put("stream_clients", it.getFrameHub().consumers)
+                    val detectors = JSONObject()
+                    for ((name, schedule) in it.getDetectorSchedules()) {
+                        val detector = JSONObject()
+                        detector.put("target", schedule.targetRate.toDouble())
+                        detector.put("rate", schedule.rate.toDouble())
+                        detector.put("runs", schedule.runs)
+                        detector.put("skipped", schedule.skipped)
+                        detectors.put(name, detector)
+                    }
+                    metrics.put("detectors", detectors)
+                    it.getMotionGate()?.let { gate ->
+                        val cascade = JSONObject()
+                        cascade.put("window", gate.windowMillis / 1000)
+                        cascade.put("open", gate.isOpen(System.nanoTime()))
+                        cascade.put("openings", gate.openings)
+                        cascade.put("open_seconds", gate.getOpenTime(System.nanoTime()) / 1000000000L)
+                        metrics.put("cascade", cascade)
+                    }
+                }
+            } catch (e: JSONException) {
+                Timber.e(e.message)
+            }
+            return metrics
+        }
+
     private fun processCommand(commandJson: JSONObject): Boolean {
         Timber.d("processCommand $commandJson")
         try {
@@ -689,7 +785,10 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         bm.sendBroadcast(intent)
     }
 
-    private fun publishMotionDetected() {
+    /**
+     * @param timestamp [System.nanoTime] the frame with the motion was captured at.
+     */
+    private fun publishMotionDetected(timestamp: Long) {
         val delay = (configuration.motionResetTime * 1000).toLong()
         if (!motionDetected) {
             Timber.d("publishMotionDetected")
@@ -701,6 +800,7 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
             }
             motionDetected = true
             publishMessage(COMMAND_SENSOR_MOTION, data)
+            PipelineMetrics.record(PipelineMetrics.MOTION_LATENCY, timestamp)
             motionClearHandler.postDelayed({ clearMotionDetected() }, delay)
         }
     }
@@ -735,6 +835,97 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
         }
     }
 
+    /**
+     * Publish where the motion is, at most once a second. Positions are fractions of the frame
+     * so they do not depend on the camera resolution.
+     */
+    private fun publishMotionRegion(motion: Motion) {
+        val now = SystemClock.elapsedRealtime()
+        val box = motion.boundingBox
+        val width = motion.width
+        val height = motion.height
+        if (box == null || width == null || height == null || now - motionRegionPublished < 1000) {
+            return
+        }
+        val data = JSONObject()
+        try {
+            data.put("left", fraction(box.left, width))
+            data.put("top", fraction(box.top, height))
+            data.put("right", fraction(box.right, width))
+            data.put("bottom", fraction(box.bottom, height))
+            data.put("x", fraction(motion.centroidX, width))
+            data.put("y", fraction(motion.centroidY, height))
+            data.put("area", Math.round(motion.areaFraction * 1000) / 1000.0)
+            data.put("magnitude", motion.magnitude)
+        } catch (ex: JSONException) {
+            ex.printStackTrace()
+        }
+        motionRegionPublished = now
+        publishMessage(COMMAND_SENSOR_MOTION_REGION, data)
+    }
+
+    private fun fraction(value: Int, total: Int): Double {
+        return Math.round(value * 1000.0 / total) / 1000.0
+    }
+
+    private fun publishZoneMotionDetected(zone: String) {
+        val delay = (configuration.motionResetTime * 1000).toLong()
+        // add() is the check, so only one thread publishes a zone that turned on
+        if (zoneMotionDetected.add(zone)) {
+            Timber.d("publishZoneMotionDetected $zone")
+            val data = JSONObject()
+            try {
+                data.put(MqttUtils.VALUE, true)
+            } catch (ex: JSONException) {
+                ex.printStackTrace()
+            }
+            publishMessage("$COMMAND_SENSOR_MOTION/$zone", data)
+            motionClearHandler.postDelayed({ clearZoneMotionDetected(zone) }, delay)
+        }
+    }
+
+    private fun clearZoneMotionDetected(zone: String) {
+        if (zoneMotionDetected.remove(zone)) {
+            Timber.d("Clearing motion detected status in zone $zone")
+            val data = JSONObject()
+            try {
+                data.put(VALUE, false)
+            } catch (ex: JSONException) {
+                ex.printStackTrace()
+            }
+            publishMessage("$COMMAND_SENSOR_MOTION/$zone", data)
+        }
+    }
+
+    private fun publishLightingChanged() {
+        if (!lightingChanged) {
+            Timber.d("publishLightingChanged")
+            val data = JSONObject()
+            try {
+                data.put(VALUE, true)
+            } catch (ex: JSONException) {
+                ex.printStackTrace()
+            }
+            lightingChanged = true
+            publishMessage(COMMAND_SENSOR_LIGHTING, data)
+            lightingClearHandler.postDelayed({ clearLightingChanged() }, 1000)
+        }
+    }
+
+    private fun clearLightingChanged() {
+        if (lightingChanged) {
+            Timber.d("Clearing lighting changed status")
+            val data = JSONObject()
+            try {
+                data.put(VALUE, false)
+            } catch (ex: JSONException) {
+                ex.printStackTrace()
+            }
+            lightingChanged = false
+            publishMessage(COMMAND_SENSOR_LIGHTING, data)
+        }
+    }
+
     private fun clearMotionDetected() {
         Timber.d("Clearing motion detected status")
         if (motionDetected) {
@@ -859,18 +1050,34 @@ class WallPanelService : LifecycleService(), MQTTModule.MQTTListener {
             sendToastMessage(getString(R.string.toast_camera_source_error))
         }
 
-        override fun onMotionDetected() {
+        override fun onMotionDetected(motion: Motion) {
             Timber.i("Motion detected")
             if (configuration.cameraMotionWake) {
                 switchScreenOn()
             }
-            publishMotionDetected()
+            publishMotionDetected(motion.timestamp)
+            if (configuration.cameraMotionRegion) {
+                publishMotionRegion(motion)
+            }
+        }
+
+        override fun onZoneMotionDetected(zone: String) {
+            Timber.i("Motion detected in zone $zone")
+            publishZoneMotionDetected(zone)
         }
 
         override fun onTooDark() {
             // Timber.i("Too dark for motion detection")
         }
 
+        override fun onLightingChanged() {
+            Timber.i("Lighting changed")
+            publishLightingChanged()
+        }
+
+        override fun onMotionOverlay(overlay: MotionOverlayRenderer, rotation: Int) {
+        }
+
         override fun onFaceDetected() {
             Timber.i("Face detected")
             Timber.d("configuration.cameraMotionBright ${configuration.cameraMotionBright}")
@@ -91,6 +91,24 @@ constructor(private val context: Context, private val sharedPreferences: SharedP
     val cameraMotionMinLuma: Int
         get() = Integer.valueOf(getStringPref(R.string.key_setting_camera_motionminluma, R.string.default_setting_camera_motionminluma).trim().toInt())
 
+    val cameraMotionDecimation: Int
+        get() = try {
+            getStringPref(R.string.key_setting_camera_motiondecimation, R.string.default_setting_camera_motiondecimation).trim().toInt()
+        } catch (e: NumberFormatException) {
+            1
+        }
+
+    val cameraMotionEngine: Int
+        get() = try {
+            getStringPref(R.string.key_setting_camera_motionengine, R.string.default_setting_camera_motionengine).trim().toInt()
+        } catch (e: NumberFormatException) {
+            0
+        }
+
+    val cameraMotionZones: String
+        get() = getStringPref(R.string.key_setting_camera_motionzones,
+                R.string.default_setting_camera_motionzones).trim()
+
     val cameraMotionOnTime: Int
         get() = getStringPref(R.string.key_setting_camera_motionontime,
                 R.string.default_setting_camera_motionontime).trim().toInt()
@@ -99,6 +117,29 @@ constructor(private val context: Context, private val sharedPreferences: SharedP
         get() = getBoolPref(R.string.key_setting_camera_motionwake,
                 R.string.default_setting_camera_motionwake)
 
+    val cameraMotionLighting: Boolean
+        get() = getBoolPref(R.string.key_setting_camera_motionlighting,
+                R.string.default_setting_camera_motionlighting)
+
+    val cameraMotionRegion: Boolean
+        get() = getBoolPref(R.string.key_setting_camera_motionregion,
+                R.string.default_setting_camera_motionregion)
+
+    val cameraMotionRecord: Boolean
+        get() = getBoolPref(R.string.key_setting_camera_motionrecord,
+                R.string.default_setting_camera_motionrecord)
+
+    val cameraMotionCascade: Boolean
+        get() = getBoolPref(R.string.key_setting_camera_motioncascade,
+                R.string.default_setting_camera_motioncascade)
+
+    val cameraMotionCascadeWindow: Int
+        get() = try {
+            getStringPref(R.string.key_setting_camera_motioncascadewindow, R.string.default_setting_camera_motioncascadewindow).trim().toInt().coerceAtLeast(1)
+        } catch (e: NumberFormatException) {
+            20
+        }
+
     val cameraMotionBright: Boolean
         get() = getBoolPref(R.string.key_setting_camera_motionbright,
                 R.string.default_setting_camera_motionbright)
@@ -220,6 +261,50 @@ constructor(private val context: Context, private val sharedPreferences: SharedP
             15.0F
         }
 
+    val cameraMotionFPS: Float
+        get() = try {
+            detectorFPS(getStringPref(R.string.key_setting_camera_motionfps, R.string.default_setting_camera_motionfps).trim().toFloat(), 10.0F)
+        } catch (e: NumberFormatException) {
+            10.0F
+        }
+
+    val cameraFaceFPS: Float
+        get() = try {
+            detectorFPS(getStringPref(R.string.key_setting_camera_facefps, R.string.default_setting_camera_facefps).trim().toFloat(), 2.0F)
+        } catch (e: NumberFormatException) {
+            2.0F
+        }
+
+    val cameraQRCodeFPS: Float
+        get() = try {
+            detectorFPS(getStringPref(R.string.key_setting_camera_qrcodefps, R.string.default_setting_camera_qrcodefps).trim().toFloat(), 1.0F)
+        } catch (e: NumberFormatException) {
+            1.0F
+        }
+
+    val cameraQRCodeCrop: Float
+        get() = try {
+            val percent = getStringPref(R.string.key_setting_camera_qrcodecrop, R.string.default_setting_camera_qrcodecrop).trim().toFloat()
+            // at least a percent of the frame, at most all of it
+            if (percent.isNaN()) 1.0F else percent.coerceIn(1f, 100f) / 100f
+        } catch (e: NumberFormatException) {
+            1.0F
+        }
+
+    val cameraQRCodeResolution: Int
+        get() = try {
+            getStringPref(R.string.key_setting_camera_qrcoderesolution, R.string.default_setting_camera_qrcoderesolution).trim().toInt().coerceIn(1, MAX_DETECTOR_SCALE)
+        } catch (e: NumberFormatException) {
+            1
+        }
+
+    val cameraFaceResolution: Int
+        get() = try {
+            getStringPref(R.string.key_setting_camera_faceresolution, R.string.default_setting_camera_faceresolution).trim().toInt().coerceIn(1, MAX_DETECTOR_SCALE)
+        } catch (e: NumberFormatException) {
+            1
+        }
+
     val testZoomLevel: Float
         get() = getStringPref(R.string.key_setting_test_zoomlevel, R.string.default_setting_test_zoomlevel).trim().toFloat()
 
@@ -265,6 +350,14 @@ constructor(private val context: Context, private val sharedPreferences: SharedP
         return cameraEnabled && (cameraMotionEnabled || cameraQRCodeEnabled || cameraFaceEnabled || httpMJPEGEnabled)
     }
 
+    /**
+     * Detector rate of at least [MIN_DETECTOR_FPS]. Rates at or above the camera FPS look at
+     * every frame.
+     */
+    private fun detectorFPS(fps: Float, default: Float): Float {
+        return if (fps.isNaN()) default else fps.coerceAtLeast(MIN_DETECTOR_FPS)
+    }
+
     private fun getStringPref(resId: Int, defId: Int): String {
         val def = context.getString(defId)
         val pref = sharedPreferences.getString(context.getString(resId), "")
@@ -290,5 +383,9 @@ constructor(private val context: Context, private val sharedPreferences: SharedP
         const val PREF_SCREEN_BRIGHTNESS = "pref_use_screen_brightness"
         const val PREF_SCREEN_INACTIVITY_TIME = "pref_screensaver_inactivity_time"
         const val PREF_SCREENSAVER_DIM_VALUE = "pref_screensaver_dim_value"
+        // lowest detector rate, one frame every ten seconds
+        const val MIN_DETECTOR_FPS = 0.1F
+        // coarsest detector resolution, as offered in the settings
+        const val MAX_DETECTOR_SCALE = 8
     }
 }
@@ -88,6 +88,10 @@ constructor(application: Application, private val configuration: Configuration,
         setCameras(cameraList)
     }
 
+    fun setMotionOverlay(mode: Int) {
+        cameraReader.setMotionOverlay(mode)
+    }
+
     fun startCameraPreview(callback: CameraCallback, preview: CameraSourcePreview?) {
         Timber.d("startCameraPreview")
         if (configuration.hasCameraDetections()) {
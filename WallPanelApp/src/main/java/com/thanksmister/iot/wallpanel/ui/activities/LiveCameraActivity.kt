@@ -20,19 +20,28 @@ import android.Manifest
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.ViewModelProviders
 import android.content.pm.PackageManager
+import android.graphics.Bitmap
+import android.graphics.Matrix
+import android.graphics.RectF
 import android.os.Build
 import android.os.Bundle
 import android.os.Handler
 import androidx.core.app.ActivityCompat
 import android.view.Gravity
+import android.view.Menu
 import android.view.MenuItem
+import android.view.View
 import android.view.WindowManager
+import android.widget.ImageView
 import android.widget.Toast
 import com.thanksmister.iot.wallpanel.R
 import com.thanksmister.iot.wallpanel.modules.CameraCallback
+import com.thanksmister.iot.wallpanel.modules.Motion
+import com.thanksmister.iot.wallpanel.modules.MotionDetector
 import com.thanksmister.iot.wallpanel.persistence.Configuration
 import com.thanksmister.iot.wallpanel.ui.DetectionViewModel
 import com.thanksmister.iot.wallpanel.ui.views.CameraSourcePreview
+import com.thanksmister.iot.wallpanel.utils.MotionOverlayRenderer
 import dagger.android.support.DaggerAppCompatActivity
 import timber.log.Timber
 import javax.inject.Inject
@@ -49,6 +58,10 @@ class LiveCameraActivity : DaggerAppCompatActivity() {
     private var preview: CameraSourcePreview? = null
     private var toastShown = false
     private var toast: Toast? = null
+    private var overlayView: ImageView? = null
+    private var overlayMode = MotionDetector.OVERLAY_NONE
+    private val overlayMatrix = Matrix()
+    private val overlayBounds = RectF()
 
     private val updatePicture = object : Runnable {
         override fun run() {
@@ -79,6 +92,7 @@ class LiveCameraActivity : DaggerAppCompatActivity() {
             window.setFlags(WindowManager.LayoutParams.FLAG_HARDWARE_ACCELERATED, WindowManager.LayoutParams.FLAG_HARDWARE_ACCELERATED)
         }
         preview = findViewById<CameraSourcePreview>(R.id.imageView_preview)
+        overlayView = findViewById<ImageView>(R.id.imageView_overlay)
         viewModel = ViewModelProviders.of(this, viewModelFactory).get(DetectionViewModel::class.java)
 
         // Check for the camera permission before accessing the camera.
@@ -90,15 +104,69 @@ class LiveCameraActivity : DaggerAppCompatActivity() {
         }
     }
 
+    override fun onCreateOptionsMenu(menu: Menu): Boolean {
+        menuInflater.inflate(R.menu.menu_camera_test, menu)
+        return true
+    }
+
+    override fun onPrepareOptionsMenu(menu: Menu): Boolean {
+        menu.findItem(R.id.action_motion_overlay).isChecked = overlayMode == MotionDetector.OVERLAY_LUMA
+        menu.findItem(R.id.action_motion_difference).isChecked = overlayMode == MotionDetector.OVERLAY_DIFFERENCE
+        return super.onPrepareOptionsMenu(menu)
+    }
+
     override fun onOptionsItemSelected(item: MenuItem): Boolean {
         val id = item.itemId
         if (id == android.R.id.home) {
             onBackPressed()
             return true
+        } else if (id == R.id.action_motion_overlay) {
+            setMotionOverlay(if (item.isChecked) MotionDetector.OVERLAY_NONE else MotionDetector.OVERLAY_LUMA)
+            return true
+        } else if (id == R.id.action_motion_difference) {
+            setMotionOverlay(if (item.isChecked) MotionDetector.OVERLAY_NONE else MotionDetector.OVERLAY_DIFFERENCE)
+            return true
         }
         return super.onOptionsItemSelected(item)
     }
 
+    private fun setMotionOverlay(mode: Int) {
+        overlayMode = mode
+        viewModel.setMotionOverlay(mode)
+        if (mode == MotionDetector.OVERLAY_NONE) {
+            overlayView!!.setImageDrawable(null)
+            overlayView!!.visibility = View.GONE
+        } else {
+            if (!configuration.cameraMotionEnabled) {
+                Toast.makeText(this, getString(R.string.toast_motion_overlay_disabled), Toast.LENGTH_LONG).show()
+            }
+            overlayView!!.visibility = View.VISIBLE
+        }
+        invalidateOptionsMenu()
+    }
+
+    /**
+     * Fit the newest overlay to the view, turned the way the camera frames are turned for the
+     * preview. Taking it hands the one shown before back to the renderer.
+     */
+    private fun showMotionOverlay(renderer: MotionOverlayRenderer, rotation: Int) {
+        val view = overlayView ?: return
+        if (overlayMode == MotionDetector.OVERLAY_NONE || view.width == 0 || view.height == 0) {
+            return
+        }
+        // null when an earlier call already took it
+        val overlay: Bitmap = renderer.acquire() ?: return
+        overlayBounds.set(0f, 0f, overlay.width.toFloat(), overlay.height.toFloat())
+        overlayMatrix.setRotate(rotation * 90f)
+        overlayMatrix.mapRect(overlayBounds)
+        overlayMatrix.postTranslate(-overlayBounds.left, -overlayBounds.top)
+        val scale = Math.min(view.width / overlayBounds.width(), view.height / overlayBounds.height())
+        overlayMatrix.postScale(scale, scale)
+        overlayMatrix.postTranslate((view.width - overlayBounds.width() * scale) / 2, (view.height - overlayBounds.height() * scale) / 2)
+        view.imageMatrix = overlayMatrix
+        view.setImageBitmap(overlay)
+    }
+
     override fun onBackPressed() {
         super.onBackPressed()
         if(toast != null) {
@@ -171,7 +239,7 @@ class LiveCameraActivity : DaggerAppCompatActivity() {
         override fun onCameraError() {
             Toast.makeText(this@LiveCameraActivity, getString(R.string.toast_camera_source_error), Toast.LENGTH_LONG).show()
         }
-        override fun onMotionDetected() {
+        override fun onMotionDetected(motion: Motion) {
             runOnUiThread {
                 if(removeTextCountdown == 0) {
                     setStatusText(getString(R.string.toast_motion_detected))
@@ -187,6 +255,21 @@ class LiveCameraActivity : DaggerAppCompatActivity() {
                 }
             }
         }
+        override fun onZoneMotionDetected(zone: String) {
+        }
+        override fun onLightingChanged() {
+            runOnUiThread {
+                if(removeTextCountdown == 0) {
+                    setStatusText(getString(R.string.toast_lighting_changed))
+                    removeTextCountdown = 10
+                }
+            }
+        }
+        override fun onMotionOverlay(overlay: MotionOverlayRenderer, rotation: Int) {
+            runOnUiThread {
+                showMotionOverlay(overlay, rotation)
+            }
+        }
 
         override fun onFaceDetected() {
             runOnUiThread {
@@ -37,6 +37,8 @@ class FaceSettingsFragment : BaseSettingsFragment() {
 
     private var motionDetectionPreference: SwitchPreference? = null
     private var motionDetectionPreference2: SwitchPreference? = null
+    private var faceFpsPreference: EditTextPreference? = null
+    private var faceResolutionPreference: ListPreference? = null
 
     override fun onAttach(context: Context) {
         AndroidSupportInjection.inject(this)
@@ -82,6 +84,11 @@ class FaceSettingsFragment : BaseSettingsFragment() {
         motionDetectionPreference2 = findPreference<SwitchPreference>(getString(R.string.key_setting_camera_facewake)) as SwitchPreference
 
         bindPreferenceSummaryToValue(motionDetectionPreference!!)
+        faceFpsPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_facefps)) as EditTextPreference
+        faceResolutionPreference = findPreference<ListPreference>(getString(R.string.key_setting_camera_faceresolution)) as ListPreference
+
         bindPreferenceSummaryToValue(motionDetectionPreference2!!)
+        bindPreferenceSummaryToValue(faceFpsPreference!!)
+        bindPreferenceSummaryToValue(faceResolutionPreference!!)
     }
 }
\ No newline at end of file
@@ -20,6 +20,7 @@ import android.content.Context
 import android.os.Bundle
 import androidx.preference.SwitchPreference
 import androidx.preference.EditTextPreference
+import androidx.preference.ListPreference
 import android.view.Menu
 import android.view.MenuInflater
 import android.view.MenuItem
@@ -33,9 +34,18 @@ class MotionSettingsFragment : BaseSettingsFragment() {
 
     private var motionDetectionPreference: SwitchPreference? = null
     private var motionWakePreference: SwitchPreference? = null
+    private var motionLightingPreference: SwitchPreference? = null
+    private var motionRegionPreference: SwitchPreference? = null
+    private var motionRecordPreference: SwitchPreference? = null
+    private var motionCascadePreference: SwitchPreference? = null
+    private var motionCascadeWindowPreference: EditTextPreference? = null
     private var motionClearPreference: EditTextPreference? = null
     private var motionLeniencyPreference: EditTextPreference? = null
     private var motionLumaPreference: EditTextPreference? = null
+    private var motionDecimationPreference: ListPreference? = null
+    private var motionFpsPreference: EditTextPreference? = null
+    private var motionEnginePreference: ListPreference? = null
+    private var motionZonesPreference: EditTextPreference? = null
 
     override fun onAttach(context: Context) {
         AndroidSupportInjection.inject(this)
@@ -79,14 +89,32 @@ class MotionSettingsFragment : BaseSettingsFragment() {
 
         motionDetectionPreference = findPreference<SwitchPreference>(getString(R.string.key_setting_camera_motionenabled)) as SwitchPreference
         motionWakePreference = findPreference<SwitchPreference>(getString(R.string.key_setting_camera_motionwake)) as SwitchPreference
+        motionLightingPreference = findPreference<SwitchPreference>(getString(R.string.key_setting_camera_motionlighting)) as SwitchPreference
+        motionRegionPreference = findPreference<SwitchPreference>(getString(R.string.key_setting_camera_motionregion)) as SwitchPreference
+        motionRecordPreference = findPreference<SwitchPreference>(getString(R.string.key_setting_camera_motionrecord)) as SwitchPreference
+        motionCascadePreference = findPreference<SwitchPreference>(getString(R.string.key_setting_camera_motioncascade)) as SwitchPreference
+        motionCascadeWindowPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_motioncascadewindow)) as EditTextPreference
         motionLeniencyPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_motionleniency)) as EditTextPreference
         motionLumaPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_motionminluma)) as EditTextPreference
         motionClearPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_motion_clear)) as EditTextPreference
+        motionDecimationPreference = findPreference<ListPreference>(getString(R.string.key_setting_camera_motiondecimation)) as ListPreference
+        motionFpsPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_motionfps)) as EditTextPreference
+        motionEnginePreference = findPreference<ListPreference>(getString(R.string.key_setting_camera_motionengine)) as ListPreference
+        motionZonesPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_motionzones)) as EditTextPreference
 
         bindPreferenceSummaryToValue(motionDetectionPreference!!)
         bindPreferenceSummaryToValue(motionWakePreference!!)
+        bindPreferenceSummaryToValue(motionLightingPreference!!)
+        bindPreferenceSummaryToValue(motionRegionPreference!!)
+        bindPreferenceSummaryToValue(motionRecordPreference!!)
+        bindPreferenceSummaryToValue(motionCascadePreference!!)
+        bindPreferenceSummaryToValue(motionCascadeWindowPreference!!)
         bindPreferenceSummaryToValue(motionLeniencyPreference!!)
         bindPreferenceSummaryToValue(motionLumaPreference!!)
         bindPreferenceSummaryToValue(motionClearPreference!!)
+        bindPreferenceSummaryToValue(motionDecimationPreference!!)
+        bindPreferenceSummaryToValue(motionFpsPreference!!)
+        bindPreferenceSummaryToValue(motionEnginePreference!!)
+        bindPreferenceSummaryToValue(motionZonesPreference!!)
     }
 }
\ No newline at end of file
@@ -18,6 +18,8 @@ package com.thanksmister.iot.wallpanel.ui.fragments
 
 import android.content.Context
 import android.os.Bundle
+import androidx.preference.EditTextPreference
+import androidx.preference.ListPreference
 import androidx.preference.SwitchPreference
 import android.view.Menu
 import android.view.MenuInflater
@@ -31,6 +33,9 @@ import dagger.android.support.AndroidSupportInjection
 class QrCodeSettingsFragment : BaseSettingsFragment() {
 
     private var qrCodePreference: SwitchPreference? = null
+    private var qrCodeFpsPreference: EditTextPreference? = null
+    private var qrCodeCropPreference: EditTextPreference? = null
+    private var qrCodeResolutionPreference: ListPreference? = null
 
     override fun onAttach(context: Context) {
         AndroidSupportInjection.inject(this)
@@ -73,7 +78,13 @@ class QrCodeSettingsFragment : BaseSettingsFragment() {
         super.onViewCreated(view, savedInstanceState)
 
         qrCodePreference = findPreference<SwitchPreference>(getString(R.string.key_setting_camera_qrcodeenabled)) as SwitchPreference
+        qrCodeFpsPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_qrcodefps)) as EditTextPreference
+        qrCodeCropPreference = findPreference<EditTextPreference>(getString(R.string.key_setting_camera_qrcodecrop)) as EditTextPreference
+        qrCodeResolutionPreference = findPreference<ListPreference>(getString(R.string.key_setting_camera_qrcoderesolution)) as ListPreference
 
         bindPreferenceSummaryToValue(qrCodePreference!!)
+        bindPreferenceSummaryToValue(qrCodeFpsPreference!!)
+        bindPreferenceSummaryToValue(qrCodeCropPreference!!)
+        bindPreferenceSummaryToValue(qrCodeResolutionPreference!!)
     }
 }
\ No newline at end of file
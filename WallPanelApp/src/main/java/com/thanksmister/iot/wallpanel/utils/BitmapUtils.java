@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+
+import com.jjoe64.motiondetection.motiondetection.MotionRenderer;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Bitmap helpers for the images of the motion detection package, which is
+ * plain Java and knows nothing of android.graphics. Camera frames are better
+ * turned before conversion with YuvRotator than with the rotate methods here.
+ */
+public abstract class BitmapUtils {
+
+    private BitmapUtils() {
+    }
+
+    /**
+     * Convert an RGB image into a Bitmap.
+     * 
+     * @param rgb
+     *            Integer array representing an RGB image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @return Bitmap of the RGB image.
+     * @throws NullPointerException
+     *             if RGB integer array is NULL.
+     */
+    public static Bitmap rgbToBitmap(int[] rgb, int width, int height) {
+        if (rgb == null) throw new NullPointerException();
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        bitmap.setPixels(rgb, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    /**
+     * Convert an RGB image into a Bitmap, drawing into the given Bitmap when
+     * it is mutable and of the same size.
+     * 
+     * @param rgb
+     *            Integer array representing an RGB image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @param reuse
+     *            Bitmap to draw into, or NULL.
+     * @return Bitmap of the RGB image, reuse or a new ARGB_8888 Bitmap.
+     * @throws NullPointerException
+     *             if RGB integer array is NULL.
+     */
+    public static Bitmap rgbToBitmap(int[] rgb, int width, int height, Bitmap reuse) {
+        if (rgb == null) throw new NullPointerException();
+
+        Bitmap bitmap = reuse;
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        bitmap.setPixels(rgb, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    /**
+     * Convert an Luma image into Greyscale.
+     * 
+     * @param lum
+     *            Integer array representing an Luma image.
+     * @param width
+     *            Width of the image.
+     * @param height
+     *            Height of the image.
+     * @return Bitmap of the Luma image.
+     * @throws NullPointerException
+     *             if RGB integer array is NULL.
+     */
+    public static Bitmap lumaToGreyscale(int[] lum, int width, int height) {
+        if (lum == null) throw new NullPointerException();
+
+        // one setPixels instead of a call per pixel
+        int[] pixels = new MotionRenderer().renderLuma(lum, width, height);
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    /**
+     * Rotate the given Bitmap by the given degrees.
+     * 
+     * @param bmp
+     *            Bitmap to rotate.
+     * @param degrees
+     *            Degrees to rotate.
+     * @return Bitmap which was rotated.
+     */
+    public static Bitmap rotate(Bitmap bmp, int degrees) {
+        if (bmp == null) throw new NullPointerException();
+
+        // getting scales of the image
+        int width = bmp.getWidth();
+        int height = bmp.getHeight();
+
+        // Creating a Matrix and rotating it to 90 degrees
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+
+        // Getting the rotated Bitmap
+        return Bitmap.createBitmap(bmp, 0, 0, width, height, matrix, true);
+    }
+
+    /**
+     * Rotate the given image in byte array format by the given degrees.
+     * 
+     * @param data
+     *            Bitmap to rotate in byte array form.
+     * @param degrees
+     *            Degrees to rotate.
+     * @return Byte array format of an image which was rotated.
+     */
+    public static byte[] rotate(byte[] data, int degrees) {
+        if (data == null) throw new NullPointerException();
+
+        // Convert the byte data into a Bitmap
+        Bitmap bmp = BitmapFactory.decodeByteArray(data, 0, data.length);
+
+        // Getting the rotated Bitmap
+        Bitmap rotatedBmp = rotate(bmp, degrees);
+
+        // Get the byte array from the Bitmap
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        rotatedBmp.compress(Bitmap.CompressFormat.JPEG, 100, stream);
+        return stream.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.utils;
+
+import android.graphics.Bitmap;
+
+import com.jjoe64.motiondetection.motiondetection.IYuvMotionDetection;
+import com.jjoe64.motiondetection.motiondetection.MotionRenderer;
+
+/**
+ * Draws the motion debug overlay: the frame as grey, or the change since the
+ * last frame, with the boxes the engine saw change outlined in red. Pixels
+ * are rendered in one pass into a kept array and handed to the Bitmap with a
+ * single setPixels, so the overlay keeps up with the camera.
+ *
+ * Three Bitmaps are triple buffered: the one the view holds, the newest
+ * rendered one waiting for the view, and the one being drawn. The view takes
+ * the newest with {@link #acquire()}, which hands back the one it held, so a
+ * Bitmap is never redrawn while it may be on screen however far the view
+ * falls behind. Feed it from the thread that runs the engine and acquire
+ * from the UI thread.
+ */
+public class MotionOverlayRenderer {
+
+    private static final int NONE = -1;
+
+    private final MotionRenderer renderer = new MotionRenderer();
+    private final Bitmap[] bitmaps = new Bitmap[3];
+    // Guarded by this
+    private int latest = NONE;
+    private int showing = NONE;
+
+    /**
+     * Render the last frame given to the engine into a Bitmap the view does
+     * not hold, and make it the newest for {@link #acquire()}.
+     *
+     * @param nv21
+     *            Byte array holding the frame.
+     * @param width
+     *            Width of the frame.
+     * @param height
+     *            Height of the frame.
+     * @param detection
+     *            Engine that has just looked at the frame.
+     * @param difference
+     *            Draw the change since the last frame instead of the frame.
+     */
+    public void render(byte[] nv21, int width, int height, IYuvMotionDetection detection, boolean difference) {
+        int[] pixels = difference ? renderer.renderDifference(nv21, width, height) : renderer.renderLuma(nv21, width, height);
+        if (detection != null) {
+            detection.paintDifferences(pixels);
+        }
+
+        int back;
+        synchronized (this) {
+            back = 0;
+            while (back == latest || back == showing) back++;
+        }
+        // neither published nor on screen, so the view cannot be drawing it
+        bitmaps[back] = BitmapUtils.rgbToBitmap(pixels, width, height, bitmaps[back]);
+        synchronized (this) {
+            latest = back;
+        }
+    }
+
+    /**
+     * Take the newest rendered overlay for the view, handing back the one
+     * taken before, which may be drawn into again from then on. Call it from
+     * the UI thread and stop drawing the Bitmap taken before.
+     *
+     * @return Bitmap to show until the next call, or NULL if nothing new has
+     *         been rendered since the last call.
+     */
+    public synchronized Bitmap acquire() {
+        if (latest == NONE) return null;
+        showing = latest;
+        latest = NONE;
+        return bitmaps[showing];
+    }
+}
@@ -40,6 +40,8 @@ class MqttUtils {
         const val COMMAND_SENSOR_FACE = "sensor/face"
         const val COMMAND_SENSOR_QR_CODE = "sensor/qrcode"
         const val COMMAND_SENSOR_MOTION = "sensor/motion"
+        const val COMMAND_SENSOR_LIGHTING = "sensor/lighting"
+        const val COMMAND_SENSOR_MOTION_REGION = "sensor/motionregion"
         const val STATE_CURRENT_URL = "currentUrl"
         const val STATE_SCREEN_ON = "screenOn"
         const val STATE_BRIGHTNESS = "brightness"
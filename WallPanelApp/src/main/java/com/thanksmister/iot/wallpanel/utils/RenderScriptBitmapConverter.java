@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.renderscript.ScriptIntrinsicYuvToRGB;
+import android.renderscript.Type;
+
+/**
+ * NV21 to Bitmap conversion with the RenderScript YUV intrinsic. The context,
+ * the intrinsic, both allocations and the output Bitmap live as long as the
+ * converter and are only made again when the frame size changes, so a
+ * stream of frames causes no native allocations after the first.
+ *
+ * Create it when the camera starts and release it when the camera stops.
+ */
+public class RenderScriptBitmapConverter {
+
+    private RenderScript renderScript;
+    private ScriptIntrinsicYuvToRGB yuvToRgb;
+    private Allocation input = null;
+    private Allocation output = null;
+    private Bitmap bitmap = null;
+    private int inputLength;
+    private int width;
+    private int height;
+
+    /**
+     * @throws android.renderscript.RSRuntimeException
+     *             if RenderScript is not available on the device.
+     */
+    public RenderScriptBitmapConverter(Context context) {
+        renderScript = RenderScript.create(context);
+        yuvToRgb = ScriptIntrinsicYuvToRGB.create(renderScript, Element.U8_4(renderScript));
+    }
+
+    /**
+     * Convert a frame.
+     *
+     * @param nv21
+     *            Byte array holding an NV21 frame.
+     * @param width
+     *            Width of the frame.
+     * @param height
+     *            Height of the frame.
+     * @return Bitmap owned by the converter and redrawn by the next call, so
+     *         it must not be recycled or kept, or NULL once released.
+     */
+    public synchronized Bitmap convert(byte[] nv21, int width, int height) {
+        if (renderScript == null) return null;
+
+        if (input == null || inputLength != nv21.length) {
+            destroy(input);
+            Type.Builder yuvType = new Type.Builder(renderScript, Element.U8(renderScript)).setX(nv21.length);
+            input = Allocation.createTyped(renderScript, yuvType.create(), Allocation.USAGE_SCRIPT);
+            inputLength = nv21.length;
+        }
+        if (output == null || this.width != width || this.height != height) {
+            destroy(output);
+            Type.Builder rgbaType = new Type.Builder(renderScript, Element.RGBA_8888(renderScript)).setX(width).setY(height);
+            output = Allocation.createTyped(renderScript, rgbaType.create(), Allocation.USAGE_SCRIPT);
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            this.width = width;
+            this.height = height;
+        }
+
+        input.copyFrom(nv21);
+        yuvToRgb.setInput(input);
+        yuvToRgb.forEach(output);
+        output.copyTo(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Free the native resources. The converter returns NULL from then on.
+     */
+    public synchronized void release() {
+        destroy(input);
+        destroy(output);
+        input = null;
+        output = null;
+        bitmap = null;
+        if (yuvToRgb != null) {
+            yuvToRgb.destroy();
+            yuvToRgb = null;
+        }
+        if (renderScript != null) {
+            renderScript.destroy();
+            renderScript = null;
+        }
+    }
+
+    private static void destroy(Allocation allocation) {
+        if (allocation != null) {
+            allocation.destroy();
+        }
+    }
+}
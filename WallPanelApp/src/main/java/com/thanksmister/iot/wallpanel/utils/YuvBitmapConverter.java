@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.utils;
+
+import android.graphics.Bitmap;
+
+import com.jjoe64.motiondetection.motiondetection.YuvConverter;
+
+/**
+ * Software NV21 to Bitmap conversion for devices without RenderScript. The
+ * pixel array and the Bitmap are kept between frames, so a stream of frames
+ * of the same size allocates nothing after the first.
+ */
+public class YuvBitmapConverter {
+
+    private final YuvConverter converter = new YuvConverter();
+    private Bitmap bitmap = null;
+
+    /**
+     * Convert a frame.
+     *
+     * @param nv21
+     *            Byte array holding an NV21 frame.
+     * @param width
+     *            Width of the frame.
+     * @param height
+     *            Height of the frame.
+     * @return Bitmap owned by the converter and redrawn by the next call, so
+     *         it must not be recycled or kept.
+     */
+    public synchronized Bitmap convert(byte[] nv21, int width, int height) {
+        int[] rgb = converter.convert(nv21, width, height);
+        bitmap = BitmapUtils.rgbToBitmap(rgb, width, height, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Drop the Bitmap, a new one is made for the next frame. It is not
+     * recycled as a conversion still in flight may be drawing from it.
+     */
+    public synchronized void release() {
+        bitmap = null;
+    }
+}
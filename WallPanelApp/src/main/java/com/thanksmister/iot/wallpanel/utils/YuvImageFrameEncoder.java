@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2019 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.wallpanel.utils;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import com.jjoe64.motiondetection.motiondetection.FrameEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes NV21 frames to JPEG with the platform's YuvImage, straight from the
+ * camera's planes. Unlike converting to a Bitmap and compressing that, no
+ * RGB copy of the frame is made.
+ */
+public class YuvImageFrameEncoder implements FrameEncoder {
+
+    @Override
+    public void encode(byte[] nv21, int width, int height, int quality, OutputStream out) throws IOException {
+        if (nv21 == null || out == null) throw new NullPointerException();
+
+        YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        if (!image.compressToJpeg(new Rect(0, 0, width, height), quality, out)) {
+            throw new IOException("Could not encode " + width + "x" + height + " frame");
+        }
+    }
+}